@@ -0,0 +1,33 @@
+package com.ourjoy.netty.tutorial.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口，命令行参数和JMH自带的Main一致
+ * 在此基础上总是打开GC profiler（统计每次操作分配的字节数gc.alloc.rate.norm），
+ * 并且默认把结果以JSON格式写到target/jmh-result.json，不同版本的结果可以直接diff或者用JMH Visualizer对比
+ */
+public class BenchmarkMain {
+
+    private static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(cmdOptions)
+                .addProfiler(GCProfiler.class);
+        //命令行没有指定-rf/-rff时才使用默认值
+        if (!cmdOptions.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmdOptions.getResult().hasValue()) {
+            builder.result(DEFAULT_RESULT_FILE);
+        }
+        new Runner(builder.build()).run();
+    }
+}
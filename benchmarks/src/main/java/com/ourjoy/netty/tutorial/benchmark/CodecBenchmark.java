@@ -0,0 +1,92 @@
+package com.ourjoy.netty.tutorial.benchmark;
+
+import com.ourjoy.netty.tutorial.netty.codec.FrameDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.serializer.CompactSerializer;
+import com.ourjoy.netty.tutorial.netty.serializer.JdkSerializer;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializer;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializers;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编解码吞吐量，消息走EmbeddedChannel的pipeline，结果包含Netty的池化分配、累积缓冲区、引用计数等开销
+ *
+ * bodySize：body序列化后的大致字节数。帧长度字段只有2个字节，一帧最大64KB，所以最大只测到60000，
+ * FrameDecoder构造参数中的maxFrameLength(1MB)实际上达不到
+ * serializer：compact为默认的CompactSerializer，jdk为JdkSerializer（和原来的ObjectSerializer一样基于JDK序列化）
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"50", "1024", "16384", "60000"})
+    public int bodySize;
+
+    @Param({"compact", "jdk"})
+    public String serializer;
+
+    private Protocol protocol;
+    private EmbeddedChannel encodeChannel;
+    private EmbeddedChannel decodeChannel;
+    private EmbeddedChannel headerOnlyChannel;
+    //编码好的一帧，解码时每次传入它的retainedDuplicate，不需要重新编码
+    private ByteBuf frame;
+
+    @Setup
+    public void setup() {
+        protocol = Messages.newProtocol(bodySize);
+        encodeChannel = newChannel(new MyEncoder());
+        decodeChannel = newChannel(new FrameDecoder(), new MyDecoder());
+        headerOnlyChannel = newChannel(new HeaderOnlyDecoder());
+
+        encodeChannel.writeOutbound(protocol);
+        frame = encodeChannel.readOutbound();
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+        encodeChannel.finishAndReleaseAll();
+        decodeChannel.finishAndReleaseAll();
+        headerOnlyChannel.finishAndReleaseAll();
+    }
+
+    private EmbeddedChannel newChannel(ChannelHandler... handlers) {
+        EmbeddedChannel channel = new EmbeddedChannel(handlers);
+        Serializer s = "jdk".equals(serializer) ? JdkSerializer.INSTANCE : CompactSerializer.INSTANCE;
+        channel.attr(Serializers.SERIALIZER).set(s);
+        return channel;
+    }
+
+    @Benchmark
+    public int encode() {
+        encodeChannel.writeOutbound(protocol);
+        ByteBuf out = encodeChannel.readOutbound();
+        int size = out.readableBytes();
+        out.release();
+        return size;
+    }
+
+    @Benchmark
+    public Object decode() {
+        decodeChannel.writeInbound(frame.retainedDuplicate());
+        return decodeChannel.readInbound();
+    }
+
+    @Benchmark
+    public Object decodeHeaderOnly() {
+        headerOnlyChannel.writeInbound(frame.retainedDuplicate());
+        return headerOnlyChannel.readInbound();
+    }
+}
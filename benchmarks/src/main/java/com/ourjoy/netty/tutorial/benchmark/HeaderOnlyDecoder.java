@@ -0,0 +1,44 @@
+package com.ourjoy.netty.tutorial.benchmark;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializers;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+/**
+ * 只解出Header、跳过body的解码器，帧格式和MyDecoder一致
+ * 和MyDecoder对比，可以看出body反序列化在解码耗时中的占比，即只按Header路由、不需要解body的场景能省下多少
+ */
+class HeaderOnlyDecoder extends LengthFieldBasedFrameDecoder {
+
+    HeaderOnlyDecoder() {
+        super(1024 * 1024, 0, 2, -2, 2);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        ByteBuf frame = (ByteBuf) super.decode(ctx, in);
+        if (null == frame) {
+            return null;
+        }
+        try {
+            int length = frame.readableBytes();
+            int magicNum = frame.readInt();
+            byte flags = frame.readByte();
+            int headerLen = frame.readUnsignedShort();
+            Header header = (Header) Serializers.get(ctx.channel()).deserialize(frame.readSlice(headerLen));
+
+            Protocol protocol = new Protocol();
+            protocol.setMagicNum(magicNum);
+            protocol.setFlags(flags);
+            protocol.setLength((short) length);
+            protocol.setHeaderLength((short) headerLen);
+            protocol.setHeader(header);
+            return protocol;
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.ourjoy.netty.tutorial.benchmark;
+
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+
+/**
+ * 构造基准测试用的消息
+ */
+final class Messages {
+
+    private Messages() {
+    }
+
+    /**
+     * @param bodySize body序列化后的大致字节数，用User.name的长度控制
+     */
+    static Protocol newProtocol(int bodySize) {
+        Header header = new Header();
+        header.setRequestId(1L);
+        header.setToken("i am token");
+        header.setBodyClass(User.class);
+
+        StringBuilder name = new StringBuilder(bodySize);
+        for (int i = 0; i < bodySize; i++) {
+            name.append((char) ('a' + i % 26));
+        }
+
+        Protocol protocol = new Protocol();
+        protocol.setMagicNum(0xABABABAB);
+        protocol.setHeader(header);
+        protocol.setBody(new User(name.toString(), 100));
+        return protocol;
+    }
+}
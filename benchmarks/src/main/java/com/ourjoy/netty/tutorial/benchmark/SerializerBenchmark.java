@@ -0,0 +1,85 @@
+package com.ourjoy.netty.tutorial.benchmark;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.serializer.CompactSerializer;
+import com.ourjoy.netty.tutorial.netty.serializer.JdkSerializer;
+import com.ourjoy.netty.tutorial.netty.serializer.ObjectSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单独测序列化组件，不经过pipeline：原来的ObjectSerializer（byte[]进出）对比Serializer接口的两个实现（直接读写池化ByteBuf）
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    @Param({"50", "1024", "16384", "60000"})
+    public int bodySize;
+
+    private Object body;
+    private byte[] objectBytes;
+    private ByteBuf jdkBytes;
+    private ByteBuf compactBytes;
+    private ByteBuf out;
+
+    @Setup
+    public void setup() {
+        Protocol protocol = Messages.newProtocol(bodySize);
+        body = protocol.getBody();
+        objectBytes = ObjectSerializer.toArray(body);
+        jdkBytes = PooledByteBufAllocator.DEFAULT.directBuffer();
+        JdkSerializer.INSTANCE.serialize(body, jdkBytes);
+        compactBytes = PooledByteBufAllocator.DEFAULT.directBuffer();
+        CompactSerializer.INSTANCE.serialize(body, compactBytes);
+        out = PooledByteBufAllocator.DEFAULT.directBuffer(bodySize * 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        jdkBytes.release();
+        compactBytes.release();
+        out.release();
+    }
+
+    @Benchmark
+    public byte[] objectSerializerWrite() {
+        return ObjectSerializer.toArray(body);
+    }
+
+    @Benchmark
+    public Object objectSerializerRead() {
+        return ObjectSerializer.toObject(objectBytes);
+    }
+
+    @Benchmark
+    public int jdkWrite() {
+        out.clear();
+        JdkSerializer.INSTANCE.serialize(body, out);
+        return out.writerIndex();
+    }
+
+    @Benchmark
+    public Object jdkRead() {
+        return JdkSerializer.INSTANCE.deserialize(jdkBytes.duplicate());
+    }
+
+    @Benchmark
+    public int compactWrite() {
+        out.clear();
+        CompactSerializer.INSTANCE.serialize(body, out);
+        return out.writerIndex();
+    }
+
+    @Benchmark
+    public Object compactRead() {
+        return CompactSerializer.INSTANCE.deserialize(compactBytes.duplicate());
+    }
+}
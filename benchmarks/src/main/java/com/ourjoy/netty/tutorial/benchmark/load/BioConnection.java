@@ -0,0 +1,38 @@
+package com.ourjoy.netty.tutorial.benchmark.load;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BioServer的协议：一行文本，以\r\n结尾，服务端原样返回一行
+ */
+class BioConnection implements Connection {
+
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final Writer writer;
+    private final String line;
+
+    BioConnection(String host, int port, String payload) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        line = payload + "\r\n";
+    }
+
+    @Override
+    public void call() throws IOException {
+        writer.write(line);
+        writer.flush();
+        if (null == reader.readLine()) {
+            throw new EOFException("server closed connection");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,12 @@
+package com.ourjoy.netty.tutorial.benchmark.load;
+
+import java.io.Closeable;
+
+/**
+ * 压测用的一个连接，同步的一问一答：call发出一个请求并阻塞到收到响应
+ * 每个连接只被一个压测线程使用，实现不需要考虑并发
+ */
+interface Connection extends Closeable {
+
+    void call() throws Exception;
+}
@@ -0,0 +1,207 @@
+package com.ourjoy.netty.tutorial.benchmark.load;
+
+import com.ourjoy.netty.tutorial.netty.NettyServer;
+import com.ourjoy.netty.tutorial.netty.ServerConfig;
+import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接密度测试：在本机回环上建立N个连接，测量NettyServer每个连接常驻的堆内存和直接内存
+ *
+ * java -cp target/benchmarks.jar com.ourjoy.netty.tutorial.benchmark.load.ConnectionDensity --connections 10000
+ *
+ * 参数（都有默认值）：
+ * --connections 连接数，默认10000，注意进程的文件句柄上限(ulimit -n)
+ * --port        默认9899
+ * --partial     true时每个连接在完成一次请求后再发半帧，测量读到一半的连接的占用，默认false
+ *
+ * 服务端运行在单独的子进程中，测出来的只是服务端的内存，不含客户端连接的对象；
+ * 每个连接先完成一次请求响应，保证pipeline中的所有处理器都已经走过一遍，然后保持空闲，
+ * 建连前后各做一次Full GC后取堆内存使用量，直接内存取Netty统计的已分配字节数
+ */
+public class ConnectionDensity {
+
+    private final int connections;
+    private final int port;
+    private final boolean partial;
+
+    ConnectionDensity(Map<String, String> options) {
+        this.connections = Integer.parseInt(options.getOrDefault("connections", "10000"));
+        this.port = Integer.parseInt(options.getOrDefault("port", "9899"));
+        this.partial = Boolean.parseBoolean(options.getOrDefault("partial", "false"));
+    }
+
+    void run() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        //子进程使用非池化的分配器，每个直接内存ByteBuf单独分配、单独计数，统计到的就是连接实际持有的字节数；
+        //池化分配器的统计粒度是16MB的chunk，看不出单个连接的占用
+        Process server = new ProcessBuilder(java, "-Dio.netty.allocator.type=unpooled", "-cp", System.getProperty("java.class.path"),
+                ConnectionDensity.class.getName(), "--serve", String.valueOf(port))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        //子进程的日志也输出到标准输出，要一直读走，否则管道写满后子进程会卡住
+        BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(server.getInputStream()))) {
+                String line;
+                while (null != (line = in.readLine())) {
+                    if (line.startsWith("ready") || line.startsWith("memory")) {
+                        replies.add(line);
+                    }
+                }
+            } catch (IOException ignore) {
+                //子进程退出
+            }
+        }, "server-stdout");
+        reader.setDaemon(true);
+        reader.start();
+
+        List<SocketChannel> channels = new ArrayList<>(connections);
+        try (PrintStream out = new PrintStream(server.getOutputStream(), true)) {
+            expect(replies, "ready");
+            long[] before = measure(replies, out);
+
+            ByteBuffer request = encodeRequest();
+            ByteBuffer response = ByteBuffer.allocate(MyEncoder.MAX_FRAME_LENGTH);
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+                channels.add(channel);
+                request.rewind();
+                channel.write(request);
+                readFrame(channel, response);
+                if (partial) {
+                    //只发前一半，服务端要一直拿着这半帧
+                    request.rewind().limit(request.capacity() / 2);
+                    channel.write(request);
+                    request.limit(request.capacity());
+                }
+            }
+            long[] after = measure(replies, out);
+
+            System.out.printf("connections=%d partial=%s activeOnServer=%d%n", connections, partial, after[2]);
+            System.out.printf("heap   total=%,d bytes  perConnection=%,d bytes%n", after[0] - before[0], (after[0] - before[0]) / connections);
+            System.out.printf("direct total=%,d bytes  perConnection=%,d bytes%n", after[1] - before[1], (after[1] - before[1]) / connections);
+            out.println("exit");
+        } finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            server.destroy();
+        }
+    }
+
+    private static ByteBuffer encodeRequest() {
+        Header header = new Header();
+        header.setRequestId(1);
+        header.setToken("i am token");
+        header.setBodyClass(User.class);
+        Protocol protocol = new Protocol();
+        protocol.setMagicNum(0xABABABAB);
+        protocol.setHeader(header);
+        protocol.setBody(new User("density", 1));
+
+        EmbeddedChannel encoder = new EmbeddedChannel(new MyEncoder());
+        encoder.writeOutbound(protocol);
+        ByteBuf frame = encoder.readOutbound();
+        ByteBuffer request = ByteBuffer.allocate(frame.readableBytes());
+        frame.readBytes(request);
+        frame.release();
+        request.flip();
+        return request;
+    }
+
+    private static void readFrame(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear().limit(2);
+        readFully(channel, buffer);
+        buffer.limit(buffer.getShort(0) & 0xFFFF);
+        readFully(channel, buffer);
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("server closed connection");
+            }
+        }
+    }
+
+    /**
+     * @return 服务端的 {堆内存, 直接内存, 活跃连接数}
+     */
+    private static long[] measure(BlockingQueue<String> replies, PrintStream out) throws Exception {
+        out.println("measure");
+        String[] parts = expect(replies, "memory").split(" ");
+        return new long[]{Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3])};
+    }
+
+    private static String expect(BlockingQueue<String> replies, String prefix) throws Exception {
+        String line = replies.poll(60, TimeUnit.SECONDS);
+        if (null == line || !line.startsWith(prefix)) {
+            throw new EOFException("expect " + prefix + " from server process, but got: " + line);
+        }
+        return line;
+    }
+
+    /**
+     * 子进程：启动NettyServer，按标准输入的指令报告内存
+     */
+    private static void serve(int port) throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setPort(port);
+        NettyServer server = new NettyServer(config);
+        server.bind();
+        System.out.println("ready");
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while (null != (line = in.readLine()) && !"exit".equals(line)) {
+            //给最后几个连接的读写一点时间完成，再连续两次GC，让堆稳定下来
+            Thread.sleep(1000);
+            System.gc();
+            System.gc();
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            long direct = PlatformDependent.usedDirectMemory();
+            System.out.println("memory " + heap + " " + direct + " " + server.getMetrics().getActiveConnections());
+        }
+        server.close();
+        System.exit(0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("expect --name value, but got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (options.containsKey("serve")) {
+            serve(Integer.parseInt(options.get("serve")));
+            return;
+        }
+        new ConnectionDensity(options).run();
+    }
+}
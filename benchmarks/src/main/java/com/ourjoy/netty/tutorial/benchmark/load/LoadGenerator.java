@@ -0,0 +1,232 @@
+package com.ourjoy.netty.tutorial.benchmark.load;
+
+import com.ourjoy.netty.tutorial.netty.transport.Transport;
+import io.netty.channel.EventLoopGroup;
+import org.HdrHistogram.Histogram;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无交互的压测工具，通过本机回环压BioServer、NioServer、NettyServer，输出吞吐量和p50/p99/p99.9/max延迟
+ *
+ * java -cp target/benchmarks.jar com.ourjoy.netty.tutorial.benchmark.load.LoadGenerator --target netty --mode open --rate 20000
+ *
+ * 参数（都有默认值）：
+ * --target      bio | nio | netty，默认netty
+ * --host/--port 默认127.0.0.1:8888
+ * --mode        closed：闭环，固定并发，每个连接收到响应后立即发下一个，测的是最大吞吐
+ *               open：开环，按固定速率发请求，测的是给定负载下的延迟
+ * --connections 连接数，每个连接一个压测线程，默认16
+ * --rate        open模式下所有连接合计的每秒请求数，默认10000
+ * --duration    统计时长，秒，默认30
+ * --warmup      预热时长，秒，预热期间的请求不计入结果，默认5
+ * --payload     请求消息体的字符数，默认64
+ * --histogram   把完整的延迟分布写到这个文件，可以用HdrHistogram的在线工具画图
+ *
+ * 开环模式按计划发送时间而不是实际发送时间计算延迟：服务端卡顿时压测线程也跟着被卡住，
+ * 如果从实际发送时间算起，卡顿期间本该发出的请求都没有被统计到，延迟会被严重低估（coordinated omission），
+ * 所以结果中同时给出按计划时间修正后的延迟和未修正的延迟，两者差距越大说明服务端的停顿越严重
+ */
+public class LoadGenerator {
+
+    private final Map<String, String> options;
+    private final String target;
+    private final String host;
+    private final int port;
+    private final boolean openLoop;
+    private final int connections;
+    private final int rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final String payload;
+
+    private EventLoopGroup nettyGroup;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.target = option("target", "netty");
+        this.host = option("host", "127.0.0.1");
+        this.port = Integer.parseInt(option("port", "8888"));
+        this.openLoop = "open".equals(option("mode", "closed"));
+        this.connections = Integer.parseInt(option("connections", "16"));
+        this.rate = Integer.parseInt(option("rate", "10000"));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "30")));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "5")));
+        StringBuilder sb = new StringBuilder();
+        int payloadSize = Integer.parseInt(option("payload", "64"));
+        for (int i = 0; i < payloadSize; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        this.payload = sb.toString();
+    }
+
+    private String option(String name, String defaultValue) {
+        String value = options.get(name);
+        return null == value ? defaultValue : value;
+    }
+
+    private Connection connect() throws Exception {
+        switch (target) {
+            case "bio":
+                return new BioConnection(host, port, payload);
+            case "nio":
+                return new NioConnection(host, port, payload);
+            case "netty":
+                return new NettyConnection(nettyGroup, host, port, payload);
+            default:
+                throw new IllegalArgumentException("unknown target: " + target);
+        }
+    }
+
+    void run() throws Exception {
+        if ("netty".equals(target)) {
+            nettyGroup = Transport.best().newEventLoopGroup(Runtime.getRuntime().availableProcessors(), "load-netty");
+        }
+        List<Worker> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                workers.add(new Worker(connect()));
+            }
+
+            long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            CountDownLatch done = new CountDownLatch(workers.size());
+            for (int i = 0; i < workers.size(); i++) {
+                Worker worker = workers.get(i);
+                //开环模式下各线程的发送时间错开，合起来是均匀的速率
+                long intervalNanos = openLoop ? (long) (TimeUnit.SECONDS.toNanos(1) * (double) connections / rate) : 0;
+                long firstSend = start + intervalNanos * i / connections;
+                Thread thread = new Thread(() -> {
+                    try {
+                        worker.run(firstSend, intervalNanos, start + warmupNanos, start + warmupNanos + durationNanos);
+                    } finally {
+                        done.countDown();
+                    }
+                }, "load-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            done.await();
+        } finally {
+            for (Worker worker : workers) {
+                worker.connection.close();
+            }
+            if (null != nettyGroup) {
+                nettyGroup.shutdownGracefully();
+            }
+        }
+        report(workers);
+    }
+
+    private void report(List<Worker> workers) throws IOException {
+        Histogram corrected = new Histogram(3);
+        Histogram uncorrected = new Histogram(3);
+        long errors = 0;
+        for (Worker worker : workers) {
+            corrected.add(worker.corrected);
+            uncorrected.add(worker.uncorrected);
+            errors += worker.errors;
+        }
+
+        double seconds = durationNanos / 1e9;
+        System.out.println(String.format("target=%s mode=%s connections=%d%s duration=%ds payload=%d",
+                target, openLoop ? "open" : "closed", connections, openLoop ? " rate=" + rate : "",
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos), payload.length()));
+        System.out.println(String.format("requests=%d errors=%d throughput=%.1f req/s",
+                uncorrected.getTotalCount(), errors, uncorrected.getTotalCount() / seconds));
+        System.out.println("latency(us)         p50        p99      p99.9        max");
+        if (openLoop) {
+            print("corrected", corrected);
+        }
+        print(openLoop ? "uncorrected" : "closed-loop", uncorrected);
+
+        String histogramFile = options.get("histogram");
+        if (null != histogramFile) {
+            try (PrintStream out = new PrintStream(new FileOutputStream(histogramFile))) {
+                (openLoop ? corrected : uncorrected).outputPercentileDistribution(out, 1000.0);
+            }
+        }
+    }
+
+    private static void print(String name, Histogram h) {
+        System.out.println(String.format("%-12s %10.1f %10.1f %10.1f %10.1f", name,
+                h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                h.getValueAtPercentile(99.9) / 1000.0, h.getMaxValue() / 1000.0));
+    }
+
+    /**
+     * 一个压测线程，独占一个连接，统计结果也是线程私有的，最后再合并，压测过程中线程之间没有共享数据
+     */
+    private static class Worker {
+
+        private final Connection connection;
+        //从计划发送时间算起的延迟，只有开环模式有意义
+        private final Histogram corrected = new Histogram(3);
+        //从实际发送时间算起的延迟
+        private final Histogram uncorrected = new Histogram(3);
+        private long errors;
+
+        Worker(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * @param intervalNanos 两次发送之间的间隔，0表示闭环，收到响应立即发下一个
+         */
+        void run(long firstSend, long intervalNanos, long measureStart, long end) {
+            long intended = firstSend;
+            while (true) {
+                long now = System.nanoTime();
+                if (intervalNanos > 0) {
+                    if (intended >= end) {
+                        return;
+                    }
+                    if (now < intended) {
+                        LockSupport.parkNanos(intended - now);
+                        now = System.nanoTime();
+                    }
+                } else {
+                    if (now >= end) {
+                        return;
+                    }
+                    intended = now;
+                }
+
+                try {
+                    connection.call();
+                } catch (IOException e) {
+                    //连接已经断开，这个线程没法继续了
+                    errors++;
+                    return;
+                } catch (Exception e) {
+                    errors++;
+                }
+                long finished = System.nanoTime();
+                if (intended >= measureStart) {
+                    corrected.recordValue(finished - intended);
+                    uncorrected.recordValue(finished - now);
+                }
+                intended += intervalNanos;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("expect --name value, but got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        new LoadGenerator(options).run();
+    }
+}
@@ -0,0 +1,41 @@
+package com.ourjoy.netty.tutorial.benchmark.load;
+
+import com.ourjoy.netty.tutorial.netty.NettyClient;
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.channel.EventLoopGroup;
+
+/**
+ * NettyServer的协议，通过NettyClient发送，所有连接共享一个EventLoopGroup
+ * 每次只有一个请求在途，和BIO、NIO的压测方式保持一致
+ */
+class NettyConnection implements Connection {
+
+    private final NettyClient client;
+    private final String payload;
+
+    NettyConnection(EventLoopGroup group, String host, int port, String payload) throws InterruptedException {
+        client = new NettyClient(group, host, port);
+        client.start();
+        this.payload = payload;
+    }
+
+    @Override
+    public void call() throws Exception {
+        Header header = new Header();
+        header.setToken("i am token");
+        header.setBodyClass(User.class);
+
+        Protocol protocol = new Protocol();
+        protocol.setMagicNum(0xABABABAB);
+        protocol.setHeader(header);
+        protocol.setBody(new User(payload, 100));
+        client.send(protocol).get();
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
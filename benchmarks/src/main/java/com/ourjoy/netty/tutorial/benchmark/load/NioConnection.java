@@ -0,0 +1,58 @@
+package com.ourjoy.netty.tutorial.benchmark.load;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * NioServer的协议：4字节长度 + UTF-8消息体，服务端原样返回
+ * 压测端用阻塞模式的SocketChannel即可，被测的是服务端
+ */
+class NioConnection implements Connection {
+
+    private final SocketChannel channel;
+    private final ByteBuffer request;
+    private final ByteBuffer lenBuffer = ByteBuffer.allocate(4);
+    private ByteBuffer response = ByteBuffer.allocate(0);
+
+    NioConnection(String host, int port, String payload) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+        request = ByteBuffer.allocate(4 + data.length);
+        request.putInt(data.length).put(data).flip();
+    }
+
+    @Override
+    public void call() throws IOException {
+        request.rewind();
+        while (request.hasRemaining()) {
+            channel.write(request);
+        }
+
+        lenBuffer.clear();
+        readFully(lenBuffer);
+        int len = lenBuffer.getInt(0);
+        if (response.capacity() < len) {
+            response = ByteBuffer.allocate(len);
+        }
+        response.clear().limit(len);
+        readFully(response);
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("server closed connection");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -5,89 +5,197 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
-
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 阻塞IO服务端，一个连接占用一个线程，协议是一行文本，服务端原样返回
+ *
+ * 连接的执行方式可选，见Mode：
+ * THREAD：每个连接new一个平台线程，最原始的写法，连接数多了以后线程栈内存和调度开销线性增长，直到JVM撑不住
+ * POOL：有界线程池，线程和排队都满了以后直接拒绝新连接，服务端自己不会被压垮
+ * VIRTUAL：每个连接一个虚拟线程（需要JDK 21），阻塞时不占用平台线程，几万个连接也只需要和CPU核数相当的平台线程，
+ *          保留阻塞IO简单的编程模型
+ */
 @Slf4j
 public class BioServer {
 
-    public static void main(String[] args) throws IOException {
-        start();
+    public enum Mode {
+        THREAD, POOL, VIRTUAL
     }
 
-    public static void start() throws IOException {
+    private final int port;
+    private final Mode mode;
+    //POOL模式下的最大线程数和排队连接数，排队的连接要等到某个连接断开、空出线程后才会被处理
+    private final int maxThreads;
+    private final int queueSize;
+    private final LongAdder rejectedCount = new LongAdder();
+    private ExecutorService executor;
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    public BioServer(int port, Mode mode, int maxThreads, int queueSize) {
+        this.port = port;
+        this.mode = mode;
+        this.maxThreads = maxThreads;
+        this.queueSize = queueSize;
+    }
 
-        // 创建ServerSocket，绑定到8888端口上
-        ServerSocket serverSocket = new ServerSocket(8888);
-        log.info("server start successful..., port 8888");
+    /**
+     * 参数：[端口] [thread|pool|virtual] [最大线程数] [排队连接数]，默认 8888 pool 200 100
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8888;
+        Mode mode = args.length > 1 ? Mode.valueOf(args[1].toUpperCase()) : Mode.POOL;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int queueSize = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        new BioServer(port, mode, maxThreads, queueSize).start();
+    }
 
-        //这里死循环
-        while(true) {
+    /**
+     * 绑定端口，在当前线程上循环接入连接，直到close被调用
+     */
+    public void start() throws IOException {
+        executor = newExecutor();
+        // 创建ServerSocket，绑定到端口上
+        serverSocket = new ServerSocket(port, 1024);
+        running = true;
+        log.info("server start successful..., port " + port + ", mode " + mode);
+
+        while (running) {
+            Socket socket;
             try {
                 // 接受新连接接入，这里是阻塞操作
-                Socket socket = serverSocket.accept();
-                log.info("received socket connect...");
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    log.info(e.getMessage());
+                }
+                continue;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("received socket connect: " + socket.getRemoteSocketAddress());
+            }
 
-                // 将创建的socket交给一个线程去处理，这里通常使用线程池
-                new Thread(new ServerSocketHandler(socket)).start();
-            } catch (Exception e) {
-                log.info(e.getMessage());
+            try {
+                // 将创建的socket交给执行器处理
+                executor.execute(new ServerSocketHandler(socket));
+            } catch (RejectedExecutionException e) {
+                //线程和排队都满了，直接断开，客户端可以稍后重试或者换一台服务器
+                rejectedCount.increment();
+                log.warn("server busy, reject connection: " + socket.getRemoteSocketAddress());
+                closeQuietly(socket);
             }
         }
     }
 
-    static class ServerSocketHandler implements Runnable {
-        private Socket socket;
+    private ExecutorService newExecutor() {
+        switch (mode) {
+            case POOL:
+                //核心线程数等于最大线程数，排队队列有界，满了以后抛RejectedExecutionException
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(queueSize), namedThreadFactory("bio-pool-"), new ThreadPoolExecutor.AbortPolicy());
+                pool.allowCoreThreadTimeOut(true);
+                return pool;
+            case VIRTUAL:
+                return newVirtualThreadPerTaskExecutor();
+            default:
+                //每个连接一个新线程，不做任何限制
+                return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0L, TimeUnit.SECONDS,
+                        new SynchronousQueue<>(), namedThreadFactory("bio-thread-"));
+        }
+    }
 
-        public ServerSocketHandler(Socket socket) {
-            this.socket = socket;
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor()是JDK 21的API，这里通过反射调用，代码仍然可以按Java 8编译，
+     * 运行在JDK 21上时才能使用VIRTUAL模式，用-Pjava21编译可以直接得到面向JDK 21的构建
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("virtual threads require JDK 21+, current: " + System.getProperty("java.version"));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("create virtual thread executor failed", e);
         }
+    }
 
-        @Override
-        public void run() {
-            while (true) {
-                handler();
-            }
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> new Thread(r, prefix + index.incrementAndGet());
+    }
+
+    /**
+     * @return 因为线程和排队都满了而被拒绝的连接数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public void close() throws IOException {
+        running = false;
+        if (null != serverSocket) {
+            serverSocket.close();
+        }
+        if (null != executor) {
+            executor.shutdownNow();
         }
+    }
 
-        private void handler() {
-            InputStream in = null;
-            OutputStream out = null;
-            BufferedReader br = null;
-            BufferedWriter bw = null;
-            try {
-                // 从socket中拿到输入输出流
-                in = socket.getInputStream();
-                out = socket.getOutputStream();
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+            //关闭失败也没有更多可做的了
+        }
+    }
 
-                // 将输入流包装为BufferedReader
-                br = new BufferedReader(new InputStreamReader(in));
+    static class ServerSocketHandler implements Runnable {
+        private final Socket socket;
 
-                // 一次读取一行，这里是阻塞操作
-                String line = br.readLine();
-                log.info("received client msg: " + line);
+        public ServerSocketHandler(Socket socket) {
+            this.socket = socket;
+        }
 
-                // 响应
-                response(out, line);
+        @Override
+        public void run() {
+            // 从socket中拿到输入输出流，一个连接只包装一次，BufferedReader里预读的数据不能随着每次new一个新的而丢掉
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                // 一次读取一行，这里是阻塞操作，返回null表示客户端关闭了连接，结束循环，释放线程
+                while (null != (line = br.readLine())) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("received client msg: " + line);
+                    }
+                    response(bw, line);
+                }
+            } catch (SocketException e) {
+                //连接被重置或者服务端关闭
+                log.debug(e.getMessage());
             } catch (IOException e) {
                 log.info(e.getMessage());
             } finally {
-                // close in out  br bw ....
+                closeQuietly(socket);
             }
         }
 
-        private void response(OutputStream out, String msg) {
-            try {
-                // 将输出流包装为BufferedWriter
-                BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out));
-
-                // 输出msg，并已\r\n结尾，表示一行结束，这里是阻塞操作
-                bw.write(msg + "\r\n");
-                // 将缓冲区数据强制刷出去
-                bw.flush();
-                log.info("write response to client completed.");
-                log.info("-----------------------------------------------------------------------------------");
-            } catch (IOException e) {
-                log.info(e.getMessage());
-            }
+        private void response(BufferedWriter bw, String msg) throws IOException {
+            // 输出msg，并已\r\n结尾，表示一行结束，这里是阻塞操作
+            bw.write(msg);
+            bw.write("\r\n");
+            // 将缓冲区数据强制刷出去
+            bw.flush();
         }
     }
 }
@@ -1,30 +1,119 @@
 package com.ourjoy.netty.tutorial.netty;
 
+import com.ourjoy.netty.tutorial.netty.codec.CompressionEncoder;
+import com.ourjoy.netty.tutorial.netty.codec.FrameDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.HeaderDictionary;
 import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
 import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.client.ChannelBusyException;
 import com.ourjoy.netty.tutorial.netty.protocol.Header;
 import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
 import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.handler.BatchHandler;
 import com.ourjoy.netty.tutorial.netty.handler.ClientHandler;
+import com.ourjoy.netty.tutorial.netty.handler.FlushStats;
+import com.ourjoy.netty.tutorial.netty.handler.FlushStatsHandler;
+import com.ourjoy.netty.tutorial.netty.handler.HeartbeatHandler;
+import com.ourjoy.netty.tutorial.netty.serializer.HeaderTable;
+import com.ourjoy.netty.tutorial.netty.transport.Transport;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import lombok.extern.slf4j.Slf4j;
 
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客户端，一个实例对应一个连接
+ * send方法是异步的，每个请求带上自增的requestId，响应按requestId匹配，所以一个连接上可以同时有成千上万个请求在途，
+ * 吞吐量取决于管道深度，而不是一次请求的往返时间
+ * 需要连接多个服务端或者一个服务端多个连接时，使用ConnectionPool，多个NettyClient共享同一个EventLoopGroup
+ *
+ * 发送缓冲区超过高水位时连接变为不可写，此时send默认直接失败（ChannelBusyException），
+ * 开启blockWhenUnwritable后改为阻塞等待连接可写，等待时间计入请求超时，这样服务端变慢时客户端的内存不会无限增长
+ */
+@Slf4j
 public class NettyClient {
 
-    private static ChannelFuture channelFuture = null;
-    private static final Integer WORK_THREAD_NUM = 100;
+    //IO线程只做编解码和收发，和CPU核数一致即可
+    private static final Integer WORK_THREAD_NUM = Runtime.getRuntime().availableProcessors();
+    //默认请求超时时间
+    private static final long DEFAULT_TIMEOUT_MILLIS = 3000L;
+    //编解码器无状态，进程内所有连接共享，ConnectionPool中连接再多也只有一份
+    private static final MyEncoder ENCODER = new MyEncoder();
+    private static final MyDecoder DECODER = new MyDecoder();
+
+    private final String host;
+    private final int port;
+    //requestId生成器，同一个连接内唯一即可
+    private final AtomicLong requestIdGenerator = new AtomicLong();
+
+    //是否是自己创建的线程组，共享的线程组不能在close时关闭
+    private final boolean ownGroup;
+    private final EventLoopGroup workGroup;
+    private volatile Channel channel;
+    private final ClientHandler clientHandler = new ClientHandler();
+    private final FlushStats flushStats = new FlushStats();
+    //body压缩阈值，0表示不压缩，需要在connect之前设置
+    private int compressionThreshold = 0;
+    //发送缓冲区的高低水位，超过高水位时连接变为不可写，回落到低水位以下时恢复可写，需要在connect之前设置
+    private WriteBufferWaterMark writeBufferWaterMark = WriteBufferWaterMark.DEFAULT;
+    //多久没有发送任何数据时发一个心跳，0表示不发送，需要在connect之前设置
+    private long heartbeatIntervalMillis = 30_000L;
+    //多久没有收到任何数据（包括心跳响应）时认为服务端已经不在了，关闭连接，在途请求随之失败，0表示不检测，需要在connect之前设置
+    private long idleTimeoutMillis = 90_000L;
+    //header动态表的大小，大于0时连接建立后和服务端协商开启header字典，0表示不开启，需要在connect之前设置，见HeaderDictionary
+    private int headerTableSize = HeaderTable.DEFAULT_MAX_SIZE;
+    //批量发送：第一条请求最多等多少微秒，和后面的请求合成一个批量帧一起发出，0表示不合并，需要在connect之前设置，见BatchHandler
+    private long batchLingerMicros = 0;
+    //一个批量帧最多合并多少条请求，攒够了不再等待
+    private int maxBatchSize = 64;
+    //连接不可写时send是阻塞等待还是直接失败
+    private volatile boolean blockWhenUnwritable = false;
 
-    public static void start() throws InterruptedException {
+    public NettyClient(String host, int port) {
         //新建工作线程组
-        EventLoopGroup workGroup = new NioEventLoopGroup(WORK_THREAD_NUM);
+        this(Transport.best().newEventLoopGroup(WORK_THREAD_NUM, "netty-client"), true, host, port);
+    }
+
+    /**
+     * 使用外部共享的线程组，close时不会关闭它
+     */
+    public NettyClient(EventLoopGroup workGroup, String host, int port) {
+        this(workGroup, false, host, port);
+    }
+
+    private NettyClient(EventLoopGroup workGroup, boolean ownGroup, String host, int port) {
+        this.workGroup = workGroup;
+        this.ownGroup = ownGroup;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * 连接到服务器，并同步阻塞到连接完成
+     */
+    public void start() throws InterruptedException {
+        connect().sync();
+    }
+
+    /**
+     * 异步连接到服务器
+     */
+    public ChannelFuture connect() {
         //新建启动引导类，该类是为了简化编程，启动所需要的参数都通过它传入进行整合
         Bootstrap bootstrap = new Bootstrap();
         //设置工作线程组，这里和Server端不一样，只需要设置一个
         bootstrap.group(workGroup)
-                //设置所需要实例化的Channel实现，这里是客户端，所以是NioSocketChannel，如果是Linux，可以是EpollSocketChannel
-                .channel(NioSocketChannel.class)
+                //设置所需要实例化的Channel实现，这里是客户端，必须和线程组匹配，NIO线程组对应NioSocketChannel，epoll线程组对应EpollSocketChannel
+                .channel(Transport.of(workGroup).socketChannelClass())
+                //发送缓冲区水位，send根据isWritable做背压
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark)
                 //设置childHandler，它是给新创建出来的SocketChannel对象使用的，ChannelInitializer的作用是初始化Channel，通常会再initChannel中添加一系列的ChannelHandler
                 .handler(new ChannelInitializer() {
 
@@ -32,37 +121,225 @@ public class NettyClient {
                     protected void initChannel(Channel ch) throws Exception {
                         //拿到当前Channel对应的Pipeline实例，它是在Channel创建的时候一并创建的
                         ChannelPipeline pipeline = ch.pipeline();
+                        if (headerTableSize > 0) {
+                            ch.attr(HeaderDictionary.KEY).set(new HeaderDictionary(headerTableSize));
+                        }
+                        //send可能在很多业务线程中并发调用，每次writeAndFlush都会提交一个任务到IO线程，
+                        //FlushConsolidationHandler让这些任务执行完后只flush一次，管道化发送时大幅减少write系统调用
+                        pipeline.addLast(new FlushStatsHandler(flushStats))
+                                .addLast(new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+                        if (compressionThreshold > 0) {
+                            //压缩编码器，处理MyEncoder输出的帧
+                            pipeline.addLast(new CompressionEncoder(compressionThreshold));
+                        }
                         //自定义编码器，这里将对象转换为二进制
-                        pipeline.addLast(new MyEncoder())
-                                //自定义解码器，对消息进行解码，这里可以将消息解码为对象
-                                .addLast(new MyDecoder())
-                                //自定义业务处理类，对已经解码的对象进行处理
-                                .addLast(new ClientHandler());
+                        pipeline.addLast(ENCODER);
+                        if (batchLingerMicros > 0) {
+                            //把linger时间内的请求攒成批量帧，FlushConsolidationHandler在它前面，不影响攒批
+                            pipeline.addLast(new BatchHandler(batchLingerMicros, maxBatchSize));
+                        }
+                        //拆帧，再由自定义解码器把帧解码为对象
+                        pipeline.addLast(new FrameDecoder())
+                                .addLast(DECODER);
+                        if (heartbeatIntervalMillis > 0 || idleTimeoutMillis > 0 || headerTableSize > 0) {
+                            //空闲时发心跳，服务端的心跳响应在这里就被丢掉，不会走到ClientHandler；header字典的协商响应也在这里处理
+                            pipeline.addLast(new HeartbeatHandler(heartbeatIntervalMillis, idleTimeoutMillis, null));
+                        }
+                        //自定义业务处理类，按requestId把响应交给对应的请求
+                        pipeline.addLast(clientHandler);
                     }
                 });
 
-        //连接到服务器，并同步阻塞到绑定完成，channelFuture作为一个句柄，可以用来进程IO操作
-        channelFuture = bootstrap.connect("127.0.0.1", 8888).sync();
+        //连接到服务器，channel作为一个句柄，可以用来进程IO操作
+        ChannelFuture connectFuture = bootstrap.connect(host, port);
+        channel = connectFuture.channel();
+        if (headerTableSize > 0) {
+            //协商完成之前发出的请求仍然用普通编码
+            connectFuture.addListener((ChannelFutureListener) future -> {
+                if (future.isSuccess()) {
+                    HeaderDictionary.offer(future.channel());
+                }
+            });
+        }
+        return connectFuture;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @param heartbeatIntervalMillis 多久没有发送数据时发心跳，0表示不发送
+     * @param idleTimeoutMillis 多久没有收到数据时关闭连接，0表示不检测，应该是心跳间隔的几倍，允许丢几次心跳
+     */
+    public void setHeartbeat(long heartbeatIntervalMillis, long idleTimeoutMillis) {
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @param headerTableSize header动态表的大小，0表示不开启header字典
+     */
+    public void setHeaderTableSize(int headerTableSize) {
+        this.headerTableSize = headerTableSize;
+    }
+
+    /**
+     * 开启批量发送，高频小请求合成批量帧，省掉每条请求各自的帧开销和服务端各自的一次解码，代价是每条请求最多多等lingerMicros
+     * @param lingerMicros 第一条请求最多等多少微秒，0表示不合并
+     * @param maxBatchSize 一个批量帧最多合并多少条请求
+     */
+    public void setBatching(long lingerMicros, int maxBatchSize) {
+        this.batchLingerMicros = lingerMicros;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setWriteBufferWaterMark(int low, int high) {
+        this.writeBufferWaterMark = new WriteBufferWaterMark(low, high);
+    }
+
+    public void setBlockWhenUnwritable(boolean blockWhenUnwritable) {
+        this.blockWhenUnwritable = blockWhenUnwritable;
+    }
+
+    public boolean isActive() {
+        Channel ch = channel;
+        return null != ch && ch.isActive();
+    }
+
+    /**
+     * @return 发送缓冲区是否低于高水位
+     */
+    public boolean isWritable() {
+        Channel ch = channel;
+        return null != ch && ch.isWritable();
+    }
+
+    public Channel channel() {
+        return channel;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * 异步发送请求，使用默认超时时间
+     * @see #send(Protocol, long)
+     */
+    public CompletableFuture<Protocol> send(Protocol protocol) {
+        return send(protocol, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 异步发送请求，可以在任意线程调用，连接可写时不会阻塞
+     * 连接不可写时，默认future直接以ChannelBusyException结束；开启blockWhenUnwritable后阻塞到连接可写，最多等timeoutMillis
+     * 还没有调用start()建立连接时，future直接以IllegalStateException结束
+     * 注意会覆盖protocol.header中的requestId
+     *
+     * @param protocol 请求
+     * @param timeoutMillis 超时时间，超时后future以TimeoutException结束
+     * @return 收到响应后完成的future
+     */
+    public CompletableFuture<Protocol> send(Protocol protocol, long timeoutMillis) {
+        Channel ch = channel;
+        if (null == ch) {
+            return failed(new IllegalStateException("client not connected, call start() first"));
+        }
+        if (!ch.isWritable() && ch.isActive()) {
+            //IO线程上不能等待，否则缓冲区永远写不出去
+            if (!blockWhenUnwritable || ch.eventLoop().inEventLoop()) {
+                return failed(new ChannelBusyException("outbound buffer above high water mark, channel: " + ch));
+            }
+            long start = System.nanoTime();
+            try {
+                if (!clientHandler.awaitWritable(ch, timeoutMillis)) {
+                    return failed(ch.isActive() ? new ChannelBusyException("wait for writable timed out, channel: " + ch)
+                            : new ClosedChannelException());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return failed(e);
+            }
+            //等待的时间算在请求超时里
+            timeoutMillis = Math.max(1, timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        if (null == protocol.getHeader()) {
+            protocol.setHeader(new Header());
+        }
+        final long requestId = requestIdGenerator.incrementAndGet();
+        protocol.getHeader().setRequestId(requestId);
+
+        //先登记再写出，避免响应比登记先到
+        CompletableFuture<Protocol> future = clientHandler.getPendingRequests().register(requestId, timeoutMillis);
+        ch.writeAndFlush(protocol).addListener((ChannelFutureListener) f -> {
+            if (!f.isSuccess()) {
+                clientHandler.getPendingRequests().fail(requestId, f.cause());
+            }
+        });
+        return future;
+    }
+
+    private static CompletableFuture<Protocol> failed(Throwable cause) {
+        CompletableFuture<Protocol> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    /**
+     * @return 当前在途请求数
+     */
+    public int pendingCount() {
+        return clientHandler.getPendingRequests().size();
+    }
+
+    public FlushStats getFlushStats() {
+        return flushStats;
+    }
 
+    public void close() {
+        if (null != channel) {
+            channel.close().syncUninterruptibly();
+        }
+        if (ownGroup) {
+            workGroup.shutdownGracefully();
+        }
     }
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws Exception {
         //启动客户端
-        NettyClient.start();
+        NettyClient client = new NettyClient("127.0.0.1", 8888);
+        client.start();
+
+        //同一个连接上一次性发出100个请求，不等待响应
+        List<CompletableFuture<Protocol>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Header header = new Header();
+            header.setToken("i am token");
+            header.setBodyClass(User.class);
+
+            User user = new User("zhangsan-" + i, 100);
 
-        Header header = new Header();
-        header.setToken("i am token");
-        header.setBodyClass(User.class);
+            Protocol protocol = new Protocol();
+            protocol.setMagicNum(0xABABABAB);
+            protocol.setHeader(header);
+            protocol.setBody(user);
 
-        User user = new User("zhangsan", 100);
+            //将protocol对象发送至服务端
+            futures.add(client.send(protocol));
+        }
 
-        Protocol protocol = new Protocol();
-        protocol.setMagicNum(0xABABABAB);
-        protocol.setHeader(header);
-        protocol.setBody(user);
+        //等待所有响应回来
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        log.info("received " + futures.size() + " responses, last one: " + futures.get(futures.size() - 1).get());
+        log.info("client " + client.getFlushStats());
 
-        //将protocol对象发送至服务端
-        channelFuture.channel().writeAndFlush(protocol);
+        client.close();
     }
 
 }
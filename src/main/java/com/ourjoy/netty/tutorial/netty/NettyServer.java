@@ -1,34 +1,138 @@
 package com.ourjoy.netty.tutorial.netty;
 
+import com.ourjoy.netty.tutorial.netty.auth.AuthHandler;
+import com.ourjoy.netty.tutorial.netty.auth.TokenCache;
+import com.ourjoy.netty.tutorial.netty.cache.ResponseCache;
+import com.ourjoy.netty.tutorial.netty.cache.ResponseCacheHandler;
+import com.ourjoy.netty.tutorial.netty.codec.CompressionEncoder;
+import com.ourjoy.netty.tutorial.netty.codec.FrameDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.HeaderDictionary;
 import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
 import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.handler.AdmissionHandler;
+import com.ourjoy.netty.tutorial.netty.handler.BackpressureHandler;
+import com.ourjoy.netty.tutorial.netty.handler.FlushStats;
+import com.ourjoy.netty.tutorial.netty.handler.FlushStatsHandler;
+import com.ourjoy.netty.tutorial.netty.handler.BatchHandler;
+import com.ourjoy.netty.tutorial.netty.handler.HeartbeatHandler;
+import com.ourjoy.netty.tutorial.netty.handler.OffloadHandler;
+import com.ourjoy.netty.tutorial.netty.handler.QueueDelayProbe;
+import com.ourjoy.netty.tutorial.netty.handler.QueueTimeoutHandler;
 import com.ourjoy.netty.tutorial.netty.handler.ServerHandler;
+import com.ourjoy.netty.tutorial.netty.metrics.HandlerMetricsHandler;
+import com.ourjoy.netty.tutorial.netty.metrics.Metrics;
+import com.ourjoy.netty.tutorial.netty.metrics.MetricsHttpHandler;
+import com.ourjoy.netty.tutorial.netty.metrics.TrafficMetricsHandler;
+import com.ourjoy.netty.tutorial.netty.transport.Transport;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.RejectedExecutionHandlers;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
 @Slf4j
 public class NettyServer {
 
-    private static final Integer PORT = 8888;
-    private static final Integer BOSS_THREAD_NUM = Runtime.getRuntime().availableProcessors() * 2;
-    private static final Integer WORK_THREAD_NUM = 100;
+    private final ServerConfig config;
+    private final Transport transport;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workGroup;
+    //业务线程池，未开启时为null，ServerHandler直接在IO线程上执行
+    private EventExecutorGroup businessGroup;
+    private final OffloadHandler offloadHandler = new OffloadHandler();
+    private final BackpressureHandler backpressureHandler = new BackpressureHandler();
+    private final FlushStats flushStats = new FlushStats();
+    //因空闲被关闭的连接数
+    private final LongAdder idleClosedCount = new LongAdder();
+    //因过载或者限流而拒绝的请求数
+    private final LongAdder overloadRejectedCount = new LongAdder();
+    //排队延迟探针，未设置maxQueueDelayMillis时为null
+    private QueueDelayProbe queueDelayProbe;
+    //压缩编码器，无状态，所有Channel共享，未开启压缩时为null
+    private final CompressionEncoder compressionEncoder;
+    //认证处理器，未开启认证时为null
+    private final AuthHandler authHandler;
+    //编解码器和业务处理器都是无状态的，所有Channel共享，每个连接只需要为有状态的处理器（拆帧、flush合并、心跳）分配对象
+    private final MyEncoder encoder;
+    private final MyDecoder decoder;
+    private final ServerHandler serverHandler;
+    //响应缓存，未开启时为null
+    private final ResponseCache responseCache;
+    //指标，未开启时为null
+    private final Metrics metrics;
+    private final TrafficMetricsHandler trafficMetricsHandler;
+    private final HandlerMetricsHandler handlerMetricsHandler;
+    //指标HTTP接口的监听Channel，未开启时为null
+    private Channel metricsChannel;
+    //所有监听中的Channel，开启SO_REUSEPORT时会有多个
+    private final List<Channel> serverChannels = new ArrayList<>();
+
+    public NettyServer(ServerConfig config) {
+        this.config = config;
+        this.transport = null == config.getTransport() ? Transport.best() : config.getTransport();
+        this.compressionEncoder = config.getCompressionThreshold() > 0 ? new CompressionEncoder(config.getCompressionThreshold()) : null;
+        this.authHandler = null == config.getTokenVerifier() ? null
+                : new AuthHandler(config.getTokenVerifier(), new TokenCache(config.getAuthCacheSize(), config.getAuthCacheTtlMillis()));
+        this.responseCache = config.getResponseCacheMaxBytes() > 0
+                ? new ResponseCache(config.getResponseCacheMaxBytes(), config.getResponseCacheTtlMillis()) : null;
+        if (config.isMetricsEnabled()) {
+            this.metrics = new Metrics();
+            this.trafficMetricsHandler = new TrafficMetricsHandler(metrics);
+            this.handlerMetricsHandler = new HandlerMetricsHandler(metrics);
+        } else {
+            this.metrics = null;
+            this.trafficMetricsHandler = null;
+            this.handlerMetricsHandler = null;
+        }
+        this.encoder = new MyEncoder(metrics);
+        this.decoder = new MyDecoder(metrics, config.isLazyBody());
+        this.serverHandler = new ServerHandler(config.getServiceRegistry());
+    }
 
-    public static void start() throws InterruptedException {
+    /**
+     * 绑定端口，绑定完成后返回，不阻塞
+     */
+    public void bind() throws Exception {
+        //SO_REUSEPORT只有epoll支持，NIO下只能绑定一次
+        int acceptors = transport == Transport.EPOLL ? Math.max(1, config.getAcceptors()) : 1;
 
-        //创建boss线程组，用于接收客户端连接
-        EventLoopGroup bossGroup = new NioEventLoopGroup(BOSS_THREAD_NUM);
-        //创建work线程组，用于处理IO操作和业务逻辑处理
-        EventLoopGroup workGroup = new NioEventLoopGroup(WORK_THREAD_NUM);
+        //创建boss线程组，用于接收客户端连接，每个监听socket注册到其中一个线程上，所以线程数不能少于监听socket的个数
+        bossGroup = transport.newEventLoopGroup(Math.max(config.getBossThreads(), acceptors), "netty-boss");
+        //创建work线程组，用于处理IO操作，未开启业务线程池时业务逻辑也在这里处理
+        workGroup = transport.newEventLoopGroup(config.getWorkerThreads(), "netty-worker");
+        if (config.getBusinessThreads() > 0) {
+            //任务队列有界，队列满时execute抛出RejectedExecutionException，由OffloadHandler丢弃消息
+            businessGroup = new DefaultEventExecutorGroup(config.getBusinessThreads(), new DefaultThreadFactory("netty-business"),
+                    config.getBusinessQueueSize(), RejectedExecutionHandlers.reject());
+        }
+        if (config.getMaxQueueDelayMillis() > 0) {
+            queueDelayProbe = new QueueDelayProbe(config.getMaxQueueDelayMillis(), QueueDelayProbe.DEFAULT_INTERVAL_MILLIS, workGroup, businessGroup);
+            queueDelayProbe.start();
+        }
+        QueueTimeoutHandler queueTimeoutHandler = null == queueDelayProbe || null == businessGroup ? null
+                : new QueueTimeoutHandler(config.getMaxQueueDelayMillis(), overloadRejectedCount);
+        boolean admission = null != queueDelayProbe || config.getMaxInflightPerConnection() > 0 || config.getRequestsPerSecondPerConnection() > 0;
 
         //创建服务端启动引导类，该类是为了简化编程，启动所需要的参数都通过它传入进行整合
         ServerBootstrap bootstrap = new ServerBootstrap();
         //设置两个工作组
         bootstrap.group(bossGroup, workGroup)
-                //设置所需要实例化的Channel实现，这里是服务端，所以是NioServerSocketChannel，如果是Linux，可以是EpollServerSocketChannel
-                .channel(NioServerSocketChannel.class)
+                //设置所需要实例化的Channel实现，由Transport决定是NioServerSocketChannel还是EpollServerSocketChannel
+                .channel(transport.serverChannelClass())
+                //每个连接发送缓冲区的水位，BackpressureHandler根据它暂停和恢复读取
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
                 //设置childHandler，它是给新创建出来的SocketChannel对象使用的，ChannelInitializer的作用是初始化Channel，通常会再initChannel中添加一系列的ChannelHandler
                 .childHandler(new ChannelInitializer<Channel>() {
 
@@ -41,27 +145,232 @@ public class NettyServer {
                     protected void initChannel(Channel ch) throws Exception {
                         //拿到当前Channel对应的Pipeline实例，它是在Channel创建的时候一并创建的
                         ChannelPipeline pipeline = ch.pipeline();
+                        if (config.getHeaderTableSize() > 0) {
+                            //客户端发起协商后才会真正开启，见HeaderDictionary
+                            ch.attr(HeaderDictionary.KEY).set(new HeaderDictionary(config.getHeaderTableSize()));
+                        }
+                        if (null != metrics) {
+                            //统计原始收发字节数，必须放在最前面
+                            pipeline.addLast(trafficMetricsHandler);
+                        }
+                        //响应积压超过高水位时暂停读取，只处理入站的可写性事件，放在哪里都可以，放在最前面
+                        pipeline.addLast(backpressureHandler);
+                        if (config.isFlushConsolidation()) {
+                            //统计真正刷到socket的次数，要放在FlushConsolidationHandler前面才能看到合并后的flush
+                            pipeline.addLast(new FlushStatsHandler(flushStats));
+                        }
+                        if (null != compressionEncoder) {
+                            //压缩编码器，处理MyEncoder输出的帧，所以要加在MyEncoder前面（出站方向从后往前执行）
+                            pipeline.addLast(compressionEncoder);
+                        }
                         //自定义编码器，这里将对象转换为二进制
-                        pipeline.addLast(new MyEncoder())
-                                //自定义解码器，对消息进行解码，这里可以将消息解码为对象
-                                .addLast(new MyDecoder())
-                                //自定义业务处理类，对已经解码的对象进行处理
-                                .addLast(new ServerHandler());
+                        pipeline.addLast(encoder);
+                        if (config.getMaxBatchSize() > 1) {
+                            //给发过批量帧的客户端按批量帧回响应，要在FlushConsolidationHandler前面，攒到合并后的flush为止
+                            pipeline.addLast(new BatchHandler(0, config.getMaxBatchSize()));
+                        }
+                        if (config.isFlushConsolidation()) {
+                            //读循环进行中时，把多个flush合并到channelReadComplete时一次刷出，连接空闲时立即刷出
+                            pipeline.addLast(new FlushConsolidationHandler(config.getExplicitFlushAfterFlushes(), true));
+                        }
+                        //拆帧，只切出完整的帧，不解析内容
+                        pipeline.addLast(new FrameDecoder());
+                        if (null != authHandler) {
+                            //拿到完整帧后先验证token，验证失败的帧不会走到MyDecoder，body不会被反序列化
+                            pipeline.addLast(authHandler);
+                        }
+                        //自定义解码器，对消息进行解码，这里可以将消息解码为对象
+                        pipeline.addLast(decoder);
+                        if (config.getIdleTimeoutMillis() > 0 || config.getHeartbeatIntervalMillis() > 0 || config.getHeaderTableSize() > 0) {
+                            //心跳在IO线程上直接回复，不进业务线程池排队；空闲检测共用一个时间轮；header字典也通过心跳协商
+                            pipeline.addLast(new HeartbeatHandler(config.getHeartbeatIntervalMillis(), config.getIdleTimeoutMillis(), idleClosedCount));
+                        }
+                        if (null != responseCache) {
+                            //在IO线程上查缓存，命中的请求不进业务线程池，也不会走到ServerHandler
+                            pipeline.addLast(new ResponseCacheHandler(responseCache));
+                        }
+                        if (admission) {
+                            //过载、在途请求过多或者超过限流时直接回FLAG_OVERLOADED，放在缓存后面，命中缓存的请求不受限制
+                            pipeline.addLast(new AdmissionHandler(queueDelayProbe, config.getMaxInflightPerConnection(),
+                                    config.getRequestsPerSecondPerConnection(), config.getRequestBurstPerConnection(), overloadRejectedCount));
+                        }
+                        if (null == businessGroup) {
+                            if (null != metrics) {
+                                pipeline.addLast(handlerMetricsHandler);
+                            }
+                            //自定义业务处理类，对已经解码的对象进行处理
+                            pipeline.addLast(serverHandler);
+                        } else {
+                            pipeline.addLast(offloadHandler);
+                            if (null != queueTimeoutHandler) {
+                                //在业务线程上检查请求实际排了多久，排太久的不再处理
+                                pipeline.addLast(businessGroup, "queueTimeout", queueTimeoutHandler);
+                            }
+                            if (null != metrics) {
+                                //和ServerHandler注册在同一个线程池上，同一个Channel会分到同一个线程，统计的是业务线程上的处理耗时
+                                pipeline.addLast(businessGroup, "handlerMetrics", handlerMetricsHandler);
+                            }
+                            //业务处理类注册到业务线程池，同一个Channel固定由其中一个线程处理，保证消息顺序
+                            pipeline.addLast(businessGroup, "serverHandler", serverHandler);
+                        }
+                    }
+                });
+
+        if (transport == Transport.EPOLL) {
+            configureEpoll(bootstrap, acceptors);
+        }
+
+        //绑定端口，并同步阻塞到绑定完成，开启SO_REUSEPORT时同一个端口绑定多次，每次得到一个独立的监听socket
+        for (int i = 0; i < acceptors; i++) {
+            serverChannels.add(bootstrap.bind(config.getPort()).sync().channel());
+        }
+        log.info("Netty server started, bind on port: " + config.getPort() + ", transport: " + transport + ", acceptors: " + acceptors);
+
+        if (null != metrics) {
+            metrics.registerMBean("port-" + config.getPort());
+            if (config.getMetricsPort() > 0) {
+                bindMetricsHttp();
+            }
+        }
+    }
+
+    /**
+     * 指标的HTTP文本接口，和业务端口共用boss、work线程组，请求很少，不会影响业务
+     */
+    private void bindMetricsHttp() throws InterruptedException {
+        MetricsHttpHandler httpHandler = new MetricsHttpHandler(metrics);
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workGroup)
+                .channel(transport.serverChannelClass())
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(new HttpServerCodec())
+                                .addLast(new HttpObjectAggregator(64 * 1024))
+                                .addLast(httpHandler);
                     }
                 });
+        //只监听本机回环地址，指标不对外暴露
+        metricsChannel = bootstrap.bind("127.0.0.1", config.getMetricsPort()).sync().channel();
+        log.info("metrics endpoint started: http://127.0.0.1:" + config.getMetricsPort() + "/metrics");
+    }
 
-        //绑定端口，并同步阻塞到绑定完成
-        ChannelFuture channelFuture = bootstrap.bind(PORT).sync();
-        log.info("Netty server started, bind on port: " + PORT);
+    private void configureEpoll(ServerBootstrap bootstrap, int acceptors) {
+        if (acceptors > 1) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        if (config.getTcpFastOpen() > 0) {
+            bootstrap.option(EpollChannelOption.TCP_FASTOPEN, config.getTcpFastOpen());
+        }
+        EpollMode mode = config.isEdgeTriggered() ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, mode)
+                .childOption(EpollChannelOption.EPOLL_MODE, mode);
+        if (config.isTcpQuickAck()) {
+            bootstrap.childOption(EpollChannelOption.TCP_QUICKACK, true);
+        }
+    }
 
+    /**
+     * 绑定端口，并同步阻塞到所有监听Channel关闭
+     */
+    public void start() throws Exception {
+        bind();
         //同步阻塞只到Channel关闭后，方法返回，主流程结束
-        channelFuture.channel().closeFuture().sync();
+        for (Channel channel : serverChannels) {
+            channel.closeFuture().sync();
+        }
+    }
+
+    /**
+     * @return 因业务线程队列已满而丢弃的消息数
+     */
+    public long getRejectedCount() {
+        return offloadHandler.getRejectedCount();
+    }
+
+    /**
+     * @return 因响应积压超过高水位而暂停读取的次数
+     */
+    public long getBackpressurePauseCount() {
+        return backpressureHandler.getPauseCount();
+    }
+
+    /**
+     * @return 因token验证失败而拒绝的请求数
+     */
+    public long getAuthRejectedCount() {
+        return null == authHandler ? 0 : authHandler.getRejectedCount();
+    }
+
+    /**
+     * @return 因长时间没有收到数据而关闭的连接数
+     */
+    public long getIdleClosedCount() {
+        return idleClosedCount.sum();
+    }
+
+    /**
+     * @return 因过载、在途请求过多或者超过限流而拒绝的请求数，不包括业务线程队列已满丢弃的，见getRejectedCount
+     */
+    public long getOverloadRejectedCount() {
+        return overloadRejectedCount.sum();
+    }
+
+    /**
+     * @return 排队延迟探针，可以查询各线程当前的排队延迟，未设置maxQueueDelayMillis时为null
+     */
+    public QueueDelayProbe getQueueDelayProbe() {
+        return queueDelayProbe;
+    }
+
+    /**
+     * @return 响应缓存，包括命中率等统计，未开启时为null
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @return 指标，未开启时为null
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return flush合并效果统计，未开启flushConsolidation时没有数据
+     */
+    public FlushStats getFlushStats() {
+        return flushStats;
+    }
 
+    public void close() {
+        for (Channel channel : serverChannels) {
+            channel.close().syncUninterruptibly();
+        }
+        if (null != metricsChannel) {
+            metricsChannel.close().syncUninterruptibly();
+        }
+        if (null != metrics) {
+            metrics.unregisterMBean();
+        }
+        if (null != queueDelayProbe) {
+            queueDelayProbe.stop();
+        }
+        if (null != bossGroup) {
+            bossGroup.shutdownGracefully();
+        }
+        if (null != workGroup) {
+            workGroup.shutdownGracefully();
+        }
+        if (null != businessGroup) {
+            businessGroup.shutdownGracefully();
+        }
     }
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws Exception {
         //启动NettyServer
-        NettyServer.start();
+        new NettyServer(new ServerConfig()).start();
     }
 
 }
@@ -0,0 +1,334 @@
+package com.ourjoy.netty.tutorial.netty;
+
+import com.ourjoy.netty.tutorial.netty.auth.TokenVerifier;
+import com.ourjoy.netty.tutorial.netty.rpc.ServiceRegistry;
+import com.ourjoy.netty.tutorial.netty.serializer.HeaderTable;
+import com.ourjoy.netty.tutorial.netty.transport.Transport;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.flush.FlushConsolidationHandler;
+
+/**
+ * NettyServer的启动参数，全部有默认值，按需修改
+ */
+public class ServerConfig {
+
+    private int port = 8888;
+    //传输层实现，null表示自动选择，见Transport.best()
+    private Transport transport;
+    //boss线程数，用于接收客户端连接，一个监听socket只会用到其中一个线程，开启SO_REUSEPORT时自动扩到acceptors个
+    private int bossThreads = 1;
+    //work线程数，用于处理IO操作，IO线程不应该阻塞，和CPU核数一致即可，多了只会增加线程切换
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    //业务线程数，大于0时ServerHandler改为在独立的业务线程池中执行，慢的业务逻辑不会阻塞同一个IO线程上的其他连接
+    private int businessThreads = 0;
+    //每个业务线程的任务队列上限，队列满时新消息直接丢弃
+    private int businessQueueSize = 1024;
+    //是否合并flush：同一次读循环内的多个响应只在读完后flush一次，连接空闲时立即flush，见FlushConsolidationHandler
+    private boolean flushConsolidation = true;
+    //合并flush时，最多攒多少次flush后强制刷一次，避免一次读循环太长时响应迟迟发不出去
+    private int explicitFlushAfterFlushes = FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES;
+    //给发过批量帧的客户端回响应时，一个批量帧最多合并多少条，同一次合并flush内的响应合成一个批量帧，小于等于1表示不合并，见BatchHandler
+    private int maxBatchSize = 64;
+    //每个连接发送缓冲区的高低水位，积压的响应超过高水位时暂停读取该连接的请求，回落到低水位以下时恢复，见BackpressureHandler
+    private int writeBufferLowWaterMark = WriteBufferWaterMark.DEFAULT.low();
+    private int writeBufferHighWaterMark = WriteBufferWaterMark.DEFAULT.high();
+    //body压缩阈值，body大于等于该字节数时用Snappy压缩，0表示不压缩；解码端总是支持解压，不需要配置
+    private int compressionThreshold = 0;
+    //body延迟反序列化，第一次调用Protocol.getBody时才反序列化，只看Header的处理器（路由、转发、拒绝）完全不需要反序列化body，见Protocol
+    private boolean lazyBody = true;
+    //token验证逻辑，不为null时开启认证，每一帧都验证token，验证结果在authCacheTtlMillis内有效，见AuthHandler
+    private TokenVerifier tokenVerifier;
+    //token验证结果缓存的条目上限和有效期
+    private int authCacheSize = 10000;
+    private long authCacheTtlMillis = 60_000L;
+    //多久没有收到任何数据（包括心跳）时关闭连接，0表示不检测，半开连接和卡死的客户端会一直占着连接和缓冲区，见HeartbeatHandler
+    private long idleTimeoutMillis = 90_000L;
+    //多久没有写出任何数据时主动发一个心跳，0表示不主动发送，通常由客户端发送，服务端只需要回复
+    private long heartbeatIntervalMillis = 0;
+    //header动态表的大小，大于0时支持客户端发起的header字典协商，重复的token、类名只发下标，0表示不支持，见HeaderDictionary
+    private int headerTableSize = HeaderTable.DEFAULT_MAX_SIZE;
+    //RPC服务注册表，不为null时Header中带serviceId的请求分发到注册的服务实现，见ServiceRegistry
+    private ServiceRegistry serviceRegistry;
+    //响应缓存的字节上限，大于0时开启，路由字段、token和body字节都相同的请求直接返回缓存的响应，需要同时开启lazyBody，只适合响应完全由请求内容决定的业务，见ResponseCacheHandler
+    private long responseCacheMaxBytes = 0;
+    //缓存的响应多久过期
+    private long responseCacheTtlMillis = 10_000L;
+    //IO线程、业务线程任务排队延迟的目标值，大于0时开启，超过时新请求直接回FLAG_OVERLOADED，不再排队，见AdmissionHandler
+    private long maxQueueDelayMillis = 0;
+    //每个连接在途请求数上限，达到上限时新请求直接回FLAG_OVERLOADED，0表示不限制
+    private int maxInflightPerConnection = 0;
+    //每个连接每秒允许的请求数，按令牌桶限流，0表示不限流
+    private int requestsPerSecondPerConnection = 0;
+    //令牌桶容量，每个连接允许的突发请求数
+    private int requestBurstPerConnection = 100;
+    //是否统计指标，开启后通过JMX发布，见Metrics
+    private boolean metricsEnabled = true;
+    //指标文本接口的HTTP端口，大于0时开启，GET http://127.0.0.1:{metricsPort}/metrics
+    private int metricsPort = 0;
+
+    //以下参数只在EPOLL传输层下生效
+    //监听socket的个数，大于1时开启SO_REUSEPORT，同一个端口绑定多次，由内核把新连接分散到各个accept线程，连接风暴时accept不再是单线程瓶颈
+    private int acceptors = 1;
+    //true为边缘触发(Netty epoll的默认模式)，false为水平触发
+    private boolean edgeTriggered = true;
+    //收到数据后立即回ACK，不等延迟确认，请求-响应模式下可以降低延迟
+    private boolean tcpQuickAck = false;
+    //TCP_FASTOPEN的队列长度，大于0时开启，客户端可以在SYN中携带数据，省掉一次握手往返
+    private int tcpFastOpen = 0;
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public int getBossThreads() {
+        return bossThreads;
+    }
+
+    public void setBossThreads(int bossThreads) {
+        this.bossThreads = bossThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getBusinessThreads() {
+        return businessThreads;
+    }
+
+    public void setBusinessThreads(int businessThreads) {
+        this.businessThreads = businessThreads;
+    }
+
+    public int getBusinessQueueSize() {
+        return businessQueueSize;
+    }
+
+    public void setBusinessQueueSize(int businessQueueSize) {
+        this.businessQueueSize = businessQueueSize;
+    }
+
+    public boolean isFlushConsolidation() {
+        return flushConsolidation;
+    }
+
+    public void setFlushConsolidation(boolean flushConsolidation) {
+        this.flushConsolidation = flushConsolidation;
+    }
+
+    public int getExplicitFlushAfterFlushes() {
+        return explicitFlushAfterFlushes;
+    }
+
+    public void setExplicitFlushAfterFlushes(int explicitFlushAfterFlushes) {
+        this.explicitFlushAfterFlushes = explicitFlushAfterFlushes;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public boolean isLazyBody() {
+        return lazyBody;
+    }
+
+    public void setLazyBody(boolean lazyBody) {
+        this.lazyBody = lazyBody;
+    }
+
+    public TokenVerifier getTokenVerifier() {
+        return tokenVerifier;
+    }
+
+    public void setTokenVerifier(TokenVerifier tokenVerifier) {
+        this.tokenVerifier = tokenVerifier;
+    }
+
+    public int getAuthCacheSize() {
+        return authCacheSize;
+    }
+
+    public void setAuthCacheSize(int authCacheSize) {
+        this.authCacheSize = authCacheSize;
+    }
+
+    public long getAuthCacheTtlMillis() {
+        return authCacheTtlMillis;
+    }
+
+    public void setAuthCacheTtlMillis(long authCacheTtlMillis) {
+        this.authCacheTtlMillis = authCacheTtlMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public long getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+    }
+
+    public int getHeaderTableSize() {
+        return headerTableSize;
+    }
+
+    public void setHeaderTableSize(int headerTableSize) {
+        this.headerTableSize = headerTableSize;
+    }
+
+    public ServiceRegistry getServiceRegistry() {
+        return serviceRegistry;
+    }
+
+    public void setServiceRegistry(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public long getResponseCacheMaxBytes() {
+        return responseCacheMaxBytes;
+    }
+
+    public void setResponseCacheMaxBytes(long responseCacheMaxBytes) {
+        this.responseCacheMaxBytes = responseCacheMaxBytes;
+    }
+
+    public long getResponseCacheTtlMillis() {
+        return responseCacheTtlMillis;
+    }
+
+    public void setResponseCacheTtlMillis(long responseCacheTtlMillis) {
+        this.responseCacheTtlMillis = responseCacheTtlMillis;
+    }
+
+    public long getMaxQueueDelayMillis() {
+        return maxQueueDelayMillis;
+    }
+
+    public void setMaxQueueDelayMillis(long maxQueueDelayMillis) {
+        this.maxQueueDelayMillis = maxQueueDelayMillis;
+    }
+
+    public int getMaxInflightPerConnection() {
+        return maxInflightPerConnection;
+    }
+
+    public void setMaxInflightPerConnection(int maxInflightPerConnection) {
+        this.maxInflightPerConnection = maxInflightPerConnection;
+    }
+
+    public int getRequestsPerSecondPerConnection() {
+        return requestsPerSecondPerConnection;
+    }
+
+    public void setRequestsPerSecondPerConnection(int requestsPerSecondPerConnection) {
+        this.requestsPerSecondPerConnection = requestsPerSecondPerConnection;
+    }
+
+    public int getRequestBurstPerConnection() {
+        return requestBurstPerConnection;
+    }
+
+    public void setRequestBurstPerConnection(int requestBurstPerConnection) {
+        this.requestBurstPerConnection = requestBurstPerConnection;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public boolean isEdgeTriggered() {
+        return edgeTriggered;
+    }
+
+    public void setEdgeTriggered(boolean edgeTriggered) {
+        this.edgeTriggered = edgeTriggered;
+    }
+
+    public boolean isTcpQuickAck() {
+        return tcpQuickAck;
+    }
+
+    public void setTcpQuickAck(boolean tcpQuickAck) {
+        this.tcpQuickAck = tcpQuickAck;
+    }
+
+    public int getTcpFastOpen() {
+        return tcpFastOpen;
+    }
+
+    public void setTcpFastOpen(int tcpFastOpen) {
+        this.tcpFastOpen = tcpFastOpen;
+    }
+}
@@ -0,0 +1,169 @@
+package com.ourjoy.netty.tutorial.netty.auth;
+
+import com.ourjoy.netty.tutorial.netty.codec.HeaderDictionary;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 认证处理器，放在FrameDecoder和MyDecoder之间，只解出帧里的Header拿到token，不碰body
+ *
+ * 每一帧都要验证：客户端可以在同一个连接上换token，验证结果也只在TokenCache的ttl内有效
+ * 验证通过：token和它的过期时间记在连接的属性上，之后的帧带着同一个token、又没有过期时直接放行，不再查TokenCache；
+ *          token变了或者过期了，重新走TokenCache和TokenVerifier
+ * 验证失败：丢弃该帧（body从来没有被反序列化），回一个带Protocol.FLAG_UNAUTHORIZED的空响应后关闭连接
+ * 心跳帧(Protocol.FLAG_PING)不验证，直接放行；批量帧不算心跳，其中所有子消息必须带同一个token
+ * 验证结果按token缓存在TokenCache中，新连接带着已经验证过的token时不会再调用TokenVerifier
+ *
+ * 每个连接的认证结果保存在Channel属性上，本类无状态，所有Channel共享一个实例
+ */
+@Slf4j
+@ChannelHandler.Sharable
+public class AuthHandler extends ChannelInboundHandlerAdapter {
+
+    //帧中header之前的固定部分：MAGIC(4) + FLAGS(1) + HDR LEN(2)，LEN已经被FrameDecoder去掉了
+    private static final int FLAGS_OFFSET = 4;
+    private static final int HEADER_LENGTH_OFFSET = 5;
+    private static final int HEADER_OFFSET = 7;
+
+    //该连接最近一次验证通过的token
+    private static final AttributeKey<TokenCache.Entry> AUTHENTICATED = AttributeKey.valueOf("authenticated");
+
+    private final TokenVerifier verifier;
+    private final TokenCache cache;
+    private final LongAdder rejected = new LongAdder();
+
+    public AuthHandler(TokenVerifier verifier, TokenCache cache) {
+        this.verifier = verifier;
+        this.cache = cache;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        ByteBuf frame = (ByteBuf) msg;
+        byte frameFlags = frame.getByte(frame.readerIndex() + FLAGS_OFFSET);
+        if ((frameFlags & Protocol.FLAG_PING) != 0 && (frameFlags & Protocol.FLAG_BATCH) == 0) {
+            //心跳不带token，也不会交给业务处理器，直接放行，由HeartbeatHandler回复
+            //批量帧即使带着FLAG_PING也要验证，否则其中的子消息会绕过认证，MyDecoder也会拒绝这样的帧
+            ctx.fireChannelRead(frame);
+            return;
+        }
+        Header header;
+        try {
+            //只在frame上划出header那一段来反序列化，不移动readerIndex，后面的MyDecoder还要完整解析这一帧
+            int start = frame.readerIndex();
+            byte flags = frame.getByte(start + FLAGS_OFFSET);
+            int headerLen = frame.getUnsignedShort(start + HEADER_LENGTH_OFFSET);
+            int headerStart = start + HEADER_OFFSET;
+            if ((flags & Protocol.FLAG_BATCH) != 0) {
+                header = peekBatch(ctx.channel(), frame, headerStart + headerLen, frame.writerIndex());
+            } else {
+                //header用动态表编码时只偷看，不改表，MyDecoder正式解码时才改
+                header = HeaderDictionary.decodeHeader(ctx.channel(), flags, frame.slice(headerStart, headerLen), true);
+            }
+        } catch (Exception e) {
+            ReferenceCountUtil.release(frame);
+            log.warn("malformed frame before authentication, close channel: " + ctx.channel(), e);
+            ctx.close();
+            return;
+        }
+
+        String token = null == header ? null : header.getToken();
+        if (authenticate(ctx.channel(), token)) {
+            ctx.fireChannelRead(frame);
+            return;
+        }
+
+        ReferenceCountUtil.release(frame);
+        rejected.increment();
+        if (log.isDebugEnabled()) {
+            log.debug("token rejected, close channel: " + ctx.channel());
+        }
+        //带上原请求的requestId，客户端可以据此结束对应的请求
+        Header responseHeader = new Header();
+        responseHeader.setRequestId(null == header ? 0 : header.getRequestId());
+        Protocol response = new Protocol();
+        response.setMagicNum(0xABABABAB);
+        response.setFlags(Protocol.FLAG_UNAUTHORIZED);
+        response.setHeader(responseHeader);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * 批量帧本身没有header，按顺序偷看每条子消息的header，子消息格式：SUB LEN(2) FLAGS(1) HDR LEN(2) header body
+     * 只验证一个token，所以同一批的子消息必须带同一个token，有不一样的就返回token为null的header，整批拒绝
+     * @return 第一条子消息的header，批量帧为空或者有子消息没有header时返回null
+     */
+    private static Header peekBatch(Channel channel, ByteBuf frame, int sub, int end) {
+        Header first = null;
+        //后面的子消息可能引用前面子消息插入动态表的条目，只能逐条正式解码，看完再撤销对表的修改
+        HeaderDictionary.markInbound(channel);
+        try {
+            while (sub < end) {
+                int subLen = frame.getUnsignedShort(sub);
+                int headerLen = frame.getUnsignedShort(sub + 3);
+                if (sub + 2 + subLen > end || 3 + headerLen > subLen) {
+                    throw new CorruptedFrameException("truncated batch frame");
+                }
+                Header header = HeaderDictionary.decodeHeader(channel, frame.getByte(sub + 2), frame.slice(sub + 5, headerLen), false);
+                if (null == header) {
+                    return null;
+                }
+                if (null == first) {
+                    first = header;
+                } else if (!Objects.equals(first.getToken(), header.getToken())) {
+                    first.setToken(null);
+                    return first;
+                }
+                sub += 2 + subLen;
+            }
+            return first;
+        } finally {
+            HeaderDictionary.rollbackInbound(channel);
+        }
+    }
+
+    private boolean authenticate(Channel channel, String token) {
+        if (null == token) {
+            return false;
+        }
+        //同一个连接上连续的帧通常带着同一个token，只比较一次字符串
+        Attribute<TokenCache.Entry> authenticated = channel.attr(AUTHENTICATED);
+        TokenCache.Entry last = authenticated.get();
+        if (null != last && token.equals(last.token) && !last.isExpired(System.nanoTime())) {
+            return true;
+        }
+        TokenCache.Entry entry = cache.getEntry(token);
+        if (null == entry) {
+            entry = cache.putEntry(token, verifier.verify(token));
+        }
+        if (entry.valid) {
+            authenticated.set(entry);
+        }
+        return entry.valid;
+    }
+
+    /**
+     * @return 因token验证失败而拒绝的请求数
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
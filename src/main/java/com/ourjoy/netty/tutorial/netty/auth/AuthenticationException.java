@@ -0,0 +1,13 @@
+package com.ourjoy.netty.tutorial.netty.auth;
+
+/**
+ * 服务端拒绝了请求的token，客户端在收到带Protocol.FLAG_UNAUTHORIZED的响应时以此结束对应的请求
+ */
+public class AuthenticationException extends RuntimeException {
+
+    private static final long serialVersionUID = 5182566278188489250L;
+
+    public AuthenticationException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,108 @@
+package com.ourjoy.netty.tutorial.netty.auth;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * token验证结果的缓存，有容量上限，每条结果在写入ttl之后过期
+ * 验证失败的结果也会缓存，同一个错误的token反复来也不会反复触发验证
+ *
+ * 读路径只有一次ConcurrentHashMap.get，不加锁；超过容量时先清理过期的条目，还不够再随意淘汰一部分，
+ * 淘汰不追求LRU的精确性，只保证内存有上限
+ */
+public class TokenCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public TokenCache(int maxSize, long ttlMillis) {
+        if (maxSize <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("maxSize and ttlMillis must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * @return 缓存的验证结果，没有或者已过期时返回null
+     */
+    public Boolean get(String token) {
+        Entry entry = getEntry(token);
+        return null == entry ? null : entry.valid;
+    }
+
+    public void put(String token, boolean valid) {
+        putEntry(token, valid);
+    }
+
+    /**
+     * @return 没有过期的条目，没有时返回null
+     */
+    Entry getEntry(String token) {
+        Entry entry = entries.get(token);
+        if (null == entry) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            entries.remove(token, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return 新写入的条目，调用方可以自己持有它，不受淘汰的影响，见AuthHandler
+     */
+    Entry putEntry(String token, boolean valid) {
+        Entry entry = new Entry(token, valid, System.nanoTime() + ttlNanos);
+        entries.put(token, entry);
+        if (entries.size() > maxSize) {
+            evict();
+        }
+        return entry;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 先清理过期的条目，仍然超过容量时淘汰到容量的3/4，避免每次put都要淘汰
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().isExpired(now)) {
+                it.remove();
+            }
+        }
+        int target = maxSize - maxSize / 4;
+        it = entries.entrySet().iterator();
+        while (entries.size() > target && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    static final class Entry {
+
+        final String token;
+        final boolean valid;
+        final long expireAt;
+
+        Entry(String token, boolean valid, long expireAt) {
+            this.token = token;
+            this.valid = valid;
+            this.expireAt = expireAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expireAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.ourjoy.netty.tutorial.netty.auth;
+
+/**
+ * token验证逻辑，比如校验签名、查询认证中心，通常比较慢，AuthHandler会把结果缓存起来，同一个token在缓存有效期内只验证一次
+ * 实现必须是线程安全的，会在多个IO线程上同时调用
+ */
+public interface TokenVerifier {
+
+    /**
+     * @param token Header.token，可能为null
+     * @return 是否验证通过
+     */
+    boolean verify(String token);
+}
@@ -0,0 +1,83 @@
+package com.ourjoy.netty.tutorial.netty.cache;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.util.Objects;
+
+/**
+ * 响应缓存的key：请求的路由字段(serviceId、methodId、bodyClass)、token、FLAG_COMPRESSED和body的原始字节
+ * token也算在key里，同样的请求换一个调用方不会拿到别人的响应
+ *
+ * of()得到的key直接引用请求帧中的body字节，只能在请求被release之前用来查找；放进缓存的key要先copy()
+ */
+public final class RequestKey {
+
+    private final int serviceId;
+    private final int methodId;
+    private final Class<?> bodyClass;
+    private final String token;
+    private final boolean compressed;
+    private final ByteBuf body;
+    private final int hash;
+
+    private RequestKey(int serviceId, int methodId, Class<?> bodyClass, String token, boolean compressed, ByteBuf body, int hash) {
+        this.serviceId = serviceId;
+        this.methodId = methodId;
+        this.bodyClass = bodyClass;
+        this.token = token;
+        this.compressed = compressed;
+        this.body = body;
+        this.hash = hash;
+    }
+
+    /**
+     * @return 请求的key，body已经被反序列化过（没有开启lazyBody）或者没有header时返回null，这样的请求不缓存
+     */
+    public static RequestKey of(Protocol request) {
+        Header header = request.getHeader();
+        if (null == header || !request.hasRawBody()) {
+            return null;
+        }
+        ByteBuf body = request.getRawBody();
+        boolean compressed = request.hasFlag(Protocol.FLAG_COMPRESSED);
+        int hash = Objects.hash(header.getServiceId(), header.getMethodId(), header.getBodyClass(), header.getToken(), compressed);
+        hash = 31 * hash + ByteBufUtil.hashCode(body);
+        return new RequestKey(header.getServiceId(), header.getMethodId(), header.getBodyClass(), header.getToken(), compressed, body, hash);
+    }
+
+    /**
+     * @return 把body字节拷贝出来的key，不再引用请求帧
+     */
+    public RequestKey copy() {
+        return new RequestKey(serviceId, methodId, bodyClass, token, compressed, Unpooled.wrappedBuffer(ByteBufUtil.getBytes(body)), hash);
+    }
+
+    /**
+     * @return body的字节数，用于估算缓存大小
+     */
+    int bodyLength() {
+        return body.readableBytes();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey that = (RequestKey) o;
+        return hash == that.hash && serviceId == that.serviceId && methodId == that.methodId && compressed == that.compressed
+                && bodyClass == that.bodyClass && Objects.equals(token, that.token) && ByteBufUtil.equals(body, that.body);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
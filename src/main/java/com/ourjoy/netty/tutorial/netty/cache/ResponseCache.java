@@ -0,0 +1,235 @@
+package com.ourjoy.netty.tutorial.netty.cache;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 响应缓存，缓存的是序列化好的响应body和响应header中除requestId以外的字段，命中时直接拼出响应，
+ * 请求body不反序列化，业务处理器不执行，响应body不序列化
+ * 不缓存整个编码好的帧：每个响应的requestId不一样，开启header字典后header的编码还和连接的状态有关
+ *
+ * 分段LRU：按key的hash分到SEGMENTS个段，每段一个按访问顺序排列的LinkedHashMap，各自加锁，IO线程之间很少竞争同一把锁；
+ * 字节预算平均分给每段，段内超预算时从最久没访问的条目开始淘汰；每个条目写入ttl之后过期
+ *
+ * 线程安全，所有Channel共享一个实例
+ */
+public class ResponseCache {
+
+    private static final int SEGMENTS = 16;
+    //每个条目除了key和body的字节之外，对象头、Map节点、Header等的大致开销
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final long ttlNanos;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes 缓存占用的字节上限（估算值）
+     * @param ttlMillis 每个条目写入后多久过期
+     */
+    public ResponseCache(long maxBytes, long ttlMillis) {
+        if (maxBytes <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("maxBytes and ttlMillis must be positive");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxBytes / SEGMENTS));
+        }
+    }
+
+    /**
+     * 查找缓存的响应
+     * @param key 请求的key，可以直接引用请求帧
+     * @param requestId 响应要带上的requestId
+     * @param serializer 响应body万一需要反序列化时用的序列化组件
+     * @return 拼好的响应，持有缓存body的一份retainedDuplicate，写出后由编码器release；没有命中时返回null
+     */
+    public Protocol get(RequestKey key, long requestId, Serializer serializer) {
+        Protocol response = segment(key).get(key, requestId, serializer, System.nanoTime());
+        if (null == response) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return response;
+    }
+
+    /**
+     * 放入一个响应，同一个key已有的条目被替换
+     * @param key 已经copy()过的key
+     * @param response 响应，只取其中的标志位和header
+     * @param body 序列化好的响应body，所有权转移给缓存
+     */
+    public void put(RequestKey key, Protocol response, ByteBuf body) {
+        Header header = new Header();
+        header.setToken(response.getHeader().getToken());
+        header.setBodyClass(response.getHeader().getBodyClass());
+        header.setServiceId(response.getHeader().getServiceId());
+        header.setMethodId(response.getHeader().getMethodId());
+        Entry entry = new Entry(response.getFlags(), header, body, System.nanoTime() + ttlNanos,
+                ENTRY_OVERHEAD + key.bodyLength() + body.readableBytes());
+        evictions.add(segment(key).put(key, entry));
+    }
+
+    private Segment segment(RequestKey key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 因超出字节预算而被淘汰的条目数，过期的条目在下次被访问到时删除，不算在内
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return 当前占用的字节数（估算值）
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCache{" +
+                "hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", hitRate=" + String.format("%.2f", getHitRate()) +
+                ", evictions=" + getEvictionCount() +
+                ", size=" + size() +
+                ", bytes=" + getBytes() +
+                '}';
+    }
+
+    private static final class Segment {
+
+        private final long maxBytes;
+        //accessOrder为true，迭代顺序就是从最久没访问到最近访问
+        private final LinkedHashMap<RequestKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Protocol get(RequestKey key, long requestId, Serializer serializer, long now) {
+            Entry entry = entries.get(key);
+            if (null == entry) {
+                return null;
+            }
+            if (now - entry.expireAt >= 0) {
+                remove(key, entry);
+                return null;
+            }
+            //retain要在锁内做，否则可能刚拿到就被别的线程淘汰并release了
+            return entry.newResponse(requestId, serializer);
+        }
+
+        /**
+         * @return 淘汰的条目数
+         */
+        synchronized int put(RequestKey key, Entry entry) {
+            Entry old = entries.put(key, entry);
+            if (null != old) {
+                bytes -= old.size;
+                old.body.release();
+            }
+            bytes += entry.size;
+            int evicted = 0;
+            Iterator<Map.Entry<RequestKey, Entry>> it = entries.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Entry victim = it.next().getValue();
+                it.remove();
+                bytes -= victim.size;
+                victim.body.release();
+                evicted++;
+            }
+            return evicted;
+        }
+
+        private void remove(RequestKey key, Entry entry) {
+            entries.remove(key);
+            bytes -= entry.size;
+            entry.body.release();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte flags;
+        //不带requestId的响应header，只读，命中时拷贝一份
+        private final Header header;
+        private final ByteBuf body;
+        private final long expireAt;
+        private final int size;
+
+        Entry(byte flags, Header header, ByteBuf body, long expireAt, int size) {
+            this.flags = flags;
+            this.header = header;
+            this.body = body;
+            this.expireAt = expireAt;
+            this.size = size;
+        }
+
+        Protocol newResponse(long requestId, Serializer serializer) {
+            Header responseHeader = new Header();
+            responseHeader.setRequestId(requestId);
+            responseHeader.setToken(header.getToken());
+            responseHeader.setBodyClass(header.getBodyClass());
+            responseHeader.setServiceId(header.getServiceId());
+            responseHeader.setMethodId(header.getMethodId());
+
+            Protocol response = new Protocol();
+            response.setMagicNum(0xABABABAB);
+            response.setFlags(flags);
+            response.setHeader(responseHeader);
+            response.setRawBody(body.retainedDuplicate(), serializer);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.ourjoy.netty.tutorial.netty.cache;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializer;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 响应缓存处理器，放在MyDecoder后面、业务处理器前面，在IO线程上执行，命中的请求不会进业务线程池
+ *
+ * 入站：按RequestKey查ResponseCache，命中时直接写出缓存的响应，请求不再往后传；没命中时记下requestId对应的key
+ * 出站：业务处理器写出的响应如果对应一个没命中的请求，把响应body序列化一次，放进缓存，同时用序列化好的字节替换原响应写出，编码器不再序列化
+ * 带FLAG_ERROR的响应不缓存
+ *
+ * 只有body还是原始字节的请求才能算key，需要开启ServerConfig.lazyBody；只适合响应完全由请求内容决定的业务
+ *
+ * 有状态，每个Channel一个实例，只在IO线程上访问
+ */
+public class ResponseCacheHandler extends ChannelDuplexHandler {
+
+    //等待响应的请求数上限，业务处理器不回响应的请求不能让这里无限增长
+    private static final int MAX_PENDING = 4096;
+
+    private final ResponseCache cache;
+    //没命中的请求：requestId -> key，第一次没命中时才创建
+    private Map<Long, RequestKey> pending;
+
+    public ResponseCacheHandler(ResponseCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof Protocol) {
+            Protocol request = (Protocol) msg;
+            RequestKey key = RequestKey.of(request);
+            if (null != key) {
+                long requestId = request.getHeader().getRequestId();
+                Protocol response = cache.get(key, requestId, Serializers.get(ctx.channel()));
+                if (null != response) {
+                    ReferenceCountUtil.release(request);
+                    ctx.writeAndFlush(response);
+                    return;
+                }
+                if (null == pending) {
+                    pending = new HashMap<>();
+                } else if (pending.size() >= MAX_PENDING) {
+                    pending.clear();
+                }
+                pending.put(requestId, key.copy());
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (null == pending || pending.isEmpty() || !(msg instanceof Protocol)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        Protocol response = (Protocol) msg;
+        RequestKey key = null == response.getHeader() ? null : pending.remove(response.getHeader().getRequestId());
+        if (null == key || response.hasFlag(Protocol.FLAG_ERROR)) {
+            ctx.write(msg, promise);
+            return;
+        }
+
+        Serializer serializer = Serializers.get(ctx.channel());
+        ByteBuf body;
+        if (response.hasRawBody()) {
+            //原样转发的body，拷贝一份进缓存，原响应照常写出
+            body = Unpooled.copiedBuffer(response.getRawBody());
+            ctx.write(msg, promise);
+        } else {
+            body = Unpooled.buffer();
+            try {
+                serializer.serialize(response.getBody(), body);
+            } catch (Throwable t) {
+                body.release();
+                ctx.write(msg, promise);
+                return;
+            }
+            //用序列化好的字节替换原响应写出，原响应按写出的惯例在这里release
+            Protocol encoded = new Protocol();
+            encoded.setMagicNum(response.getMagicNum());
+            encoded.setFlags(response.getFlags());
+            encoded.setHeader(response.getHeader());
+            encoded.setRawBody(body.retainedDuplicate(), serializer);
+            ReferenceCountUtil.release(response);
+            ctx.write(encoded, promise);
+        }
+        cache.put(key, response, body);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        pending = null;
+        ctx.fireChannelInactive();
+    }
+}
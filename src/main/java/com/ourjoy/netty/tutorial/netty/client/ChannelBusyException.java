@@ -0,0 +1,14 @@
+package com.ourjoy.netty.tutorial.netty.client;
+
+/**
+ * 连接的发送缓冲区超过高水位，请求没有写出
+ * 说明对端处理不过来或者网络拥塞，调用方应该降速、换一个连接，或者稍后重试
+ */
+public class ChannelBusyException extends RuntimeException {
+
+    private static final long serialVersionUID = 5221446025223702190L;
+
+    public ChannelBusyException(String message) {
+        super(message);
+    }
+}
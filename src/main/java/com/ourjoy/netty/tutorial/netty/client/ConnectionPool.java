@@ -0,0 +1,185 @@
+package com.ourjoy.netty.tutorial.netty.client;
+
+import com.ourjoy.netty.tutorial.netty.NettyClient;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.transport.Transport;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoopGroup;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 客户端连接池，对每个服务端地址保持N个长连接，所有连接共享一个EventLoopGroup
+ *
+ * 每次发送时按负载均衡策略挑一个连接，负载用连接上的在途请求数衡量，发送缓冲区超过高水位的连接排在最后：
+ * LEAST_PENDING：遍历所有连接，选在途请求最少的，连接数少时最准确
+ * POWER_OF_TWO：随机挑两个连接，选在途请求少的那个，O(1)，连接数多时效果和LEAST_PENDING接近
+ *
+ * 连接断开后立即从池中剔除，然后在后台按指数退避重连，重连成功后放回原来的槽位
+ */
+@Slf4j
+public class ConnectionPool {
+
+    public enum LoadBalance {
+        LEAST_PENDING,
+        POWER_OF_TWO
+    }
+
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 100L;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 10_000L;
+
+    private final List<InetSocketAddress> endpoints;
+    private final int connectionsPerEndpoint;
+    private final LoadBalance loadBalance;
+    private final EventLoopGroup workGroup;
+    //槽位i对应endpoints[i / connectionsPerEndpoint]，值为null表示该连接不可用，正在重连
+    private final AtomicReferenceArray<NettyClient> slots;
+    private volatile boolean closed;
+
+    public ConnectionPool(List<InetSocketAddress> endpoints, int connectionsPerEndpoint, LoadBalance loadBalance) {
+        if (endpoints.isEmpty() || connectionsPerEndpoint <= 0) {
+            throw new IllegalArgumentException("endpoints must not be empty and connectionsPerEndpoint must be positive");
+        }
+        this.endpoints = endpoints;
+        this.connectionsPerEndpoint = connectionsPerEndpoint;
+        this.loadBalance = loadBalance;
+        this.workGroup = Transport.best().newEventLoopGroup(Runtime.getRuntime().availableProcessors(), "netty-client-pool");
+        this.slots = new AtomicReferenceArray<>(endpoints.size() * connectionsPerEndpoint);
+    }
+
+    /**
+     * 建立所有连接，并等待首轮连接结束，连不上的槽位会在后台继续重连
+     */
+    public void start() throws InterruptedException {
+        ChannelFuture[] futures = new ChannelFuture[slots.length()];
+        for (int i = 0; i < slots.length(); i++) {
+            futures[i] = connect(i, MIN_RECONNECT_DELAY_MILLIS);
+        }
+        for (ChannelFuture future : futures) {
+            future.await();
+        }
+    }
+
+    /**
+     * 选一个连接异步发送请求，没有可用连接时future直接以异常结束
+     */
+    public CompletableFuture<Protocol> send(Protocol protocol) {
+        NettyClient client = select();
+        if (null == client) {
+            CompletableFuture<Protocol> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("no available connection in pool"));
+            return failed;
+        }
+        return client.send(protocol);
+    }
+
+    /**
+     * @return 当前可用连接数
+     */
+    public int activeCount() {
+        int count = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            NettyClient client = slots.get(i);
+            if (null != client && client.isActive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void close() {
+        closed = true;
+        for (int i = 0; i < slots.length(); i++) {
+            NettyClient client = slots.getAndSet(i, null);
+            if (null != client) {
+                client.close();
+            }
+        }
+        workGroup.shutdownGracefully();
+    }
+
+    private NettyClient select() {
+        int size = slots.length();
+        if (loadBalance == LoadBalance.POWER_OF_TWO && size > 1) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            NettyClient a = usable(slots.get(random.nextInt(size)));
+            NettyClient b = usable(slots.get(random.nextInt(size)));
+            if (null != a && null != b) {
+                return load(a) <= load(b) ? a : b;
+            }
+            if (null != a || null != b) {
+                return null != a ? a : b;
+            }
+            //两次都抽到了不可用的连接，退化为遍历
+        }
+        NettyClient best = null;
+        int bestPending = Integer.MAX_VALUE;
+        //从随机位置开始遍历，在途请求数相同时不会总是压在第一个连接上
+        int start = ThreadLocalRandom.current().nextInt(size);
+        for (int i = 0; i < size; i++) {
+            NettyClient client = usable(slots.get((start + i) % size));
+            if (null != client) {
+                int pending = load(client);
+                if (pending < bestPending) {
+                    best = client;
+                    bestPending = pending;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 连接的负载，不可写的连接视为满载，只有所有连接都不可写时才会被选中
+     */
+    private static int load(NettyClient client) {
+        return client.isWritable() ? client.pendingCount() : Integer.MAX_VALUE - 1;
+    }
+
+    private static NettyClient usable(NettyClient client) {
+        return null != client && client.isActive() ? client : null;
+    }
+
+    private ChannelFuture connect(final int slot, final long backoffMillis) {
+        InetSocketAddress endpoint = endpoints.get(slot / connectionsPerEndpoint);
+        final NettyClient client = new NettyClient(workGroup, endpoint.getHostString(), endpoint.getPort());
+        ChannelFuture future = client.connect();
+        future.addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess() && !closed) {
+                slots.set(slot, client);
+                //连接断开时从池中剔除并重连
+                f.channel().closeFuture().addListener((ChannelFutureListener) cf -> {
+                    if (slots.compareAndSet(slot, client, null)) {
+                        log.warn("connection to " + endpoint + " closed, evicted from pool");
+                        scheduleReconnect(slot, MIN_RECONNECT_DELAY_MILLIS);
+                    }
+                });
+            } else if (f.isSuccess()) {
+                f.channel().close();
+            } else {
+                log.warn("connect to " + endpoint + " failed: " + f.cause().getMessage());
+                scheduleReconnect(slot, backoffMillis);
+            }
+        });
+        return future;
+    }
+
+    private void scheduleReconnect(final int slot, final long delayMillis) {
+        if (closed || workGroup.isShuttingDown()) {
+            return;
+        }
+        long nextDelay = Math.min(delayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+        workGroup.schedule(() -> {
+            if (!closed) {
+                connect(slot, nextDelay);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,108 @@
+package com.ourjoy.netty.tutorial.netty.client;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.util.Timers;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 一个连接上所有在途请求的登记表，key是Header.requestId
+ * 发送线程登记、IO线程完成、时间轮线程超时，三方通过ConcurrentHashMap的remove竞争，谁先remove成功谁负责完成future，全程无锁
+ */
+public class PendingRequests {
+
+    private final ConcurrentMap<Long, PendingRequest> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 登记一个请求，超时后future以TimeoutException结束
+     * @param requestId 请求id
+     * @param timeoutMillis 超时时间，小于等于0表示不超时
+     */
+    public CompletableFuture<Protocol> register(long requestId, long timeoutMillis) {
+        PendingRequest request = new PendingRequest(requestId);
+        if (null != pending.putIfAbsent(requestId, request)) {
+            throw new IllegalStateException("duplicate requestId: " + requestId);
+        }
+        if (timeoutMillis > 0) {
+            request.timeout = Timers.WHEEL.newTimeout(request, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return request;
+    }
+
+    /**
+     * 用响应完成对应的请求
+     * @return 找不到对应的请求（已超时或已被取消）时返回false
+     */
+    public boolean complete(Protocol response) {
+        PendingRequest request = pending.remove(response.getHeader().getRequestId());
+        if (null == request) {
+            return false;
+        }
+        request.cancelTimeout();
+        return request.complete(response);
+    }
+
+    /**
+     * 单个请求失败，比如写出失败
+     */
+    public void fail(long requestId, Throwable cause) {
+        PendingRequest request = pending.remove(requestId);
+        if (null != request) {
+            request.cancelTimeout();
+            request.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 连接断开时，让所有在途请求失败
+     */
+    public void failAll(Throwable cause) {
+        for (Long requestId : pending.keySet()) {
+            fail(requestId, cause);
+        }
+    }
+
+    /**
+     * @return 在途请求数
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    private final class PendingRequest extends CompletableFuture<Protocol> implements TimerTask {
+        private final long requestId;
+        private volatile Timeout timeout;
+
+        PendingRequest(long requestId) {
+            this.requestId = requestId;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (pending.remove(requestId, this)) {
+                completeExceptionally(new TimeoutException("request " + requestId + " timed out"));
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            //调用方主动取消时，同时从登记表中移除，避免泄漏
+            pending.remove(requestId, this);
+            cancelTimeout();
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        void cancelTimeout() {
+            Timeout t = timeout;
+            if (null != t) {
+                t.cancel();
+            }
+        }
+    }
+}
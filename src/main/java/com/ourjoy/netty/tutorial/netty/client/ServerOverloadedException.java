@@ -0,0 +1,14 @@
+package com.ourjoy.netty.tutorial.netty.client;
+
+/**
+ * 服务端过载或者连接超过限流，请求被直接拒绝，没有被处理
+ * 调用方应该退避后重试，或者换一个节点
+ */
+public class ServerOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 7796433115593736539L;
+
+    public ServerOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,114 @@
+package com.ourjoy.netty.tutorial.netty.codec;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+import io.netty.util.AttributeKey;
+
+import java.util.List;
+
+/**
+ * 压缩编码器，放在MyEncoder和socket之间，处理MyEncoder编码好的帧
+ * body超过阈值时用Snappy压缩body部分，并在FLAGS中设置Protocol.FLAG_COMPRESSED，MyDecoder看到该标志位后先解压再反序列化
+ * 只压缩body，header通常很小，压缩不划算；压缩后没有变小的帧原样发出
+ * 批量帧（见Batch）不压缩：里面都是小消息，而且一个ByteBuf里可能有多个批量帧
+ *
+ * 对延迟敏感的连接可以执行 ch.attr(CompressionEncoder.DISABLED).set(true) 关闭压缩
+ *
+ * 无状态，所有Channel共享一个实例
+ */
+@ChannelHandler.Sharable
+public class CompressionEncoder extends MessageToMessageEncoder<ByteBuf> {
+
+    public static final AttributeKey<Boolean> DISABLED = AttributeKey.valueOf("compressionDisabled");
+
+    //body小于该字节数时不压缩
+    private final int threshold;
+
+    public CompressionEncoder(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) throws Exception {
+        int frameStart = frame.readerIndex();
+        int bodyStart = frameStart + MyEncoder.PREFIX_LENGTH + frame.getUnsignedShort(frameStart + MyEncoder.HEADER_LENGTH_OFFSET);
+        int bodyLen = frame.writerIndex() - bodyStart;
+        byte flags = frame.getByte(frameStart + MyEncoder.FLAGS_OFFSET);
+
+        if (bodyLen < threshold || (flags & (Protocol.FLAG_COMPRESSED | Protocol.FLAG_BATCH)) != 0 || Boolean.TRUE.equals(ctx.channel().attr(DISABLED).get())) {
+            //MessageToMessageEncoder会在encode之后release原消息，原样透传需要先retain
+            out.add(frame.retain());
+            return;
+        }
+
+        int prefixLen = bodyStart - frameStart;
+        ByteBuf compressed = ctx.alloc().ioBuffer(prefixLen + bodyLen);
+        try {
+            //LEN、MAGIC、FLAGS、HDR LEN、header原样拷贝，body压缩后写在后面
+            compressed.writeBytes(frame, frameStart, prefixLen);
+            //Snappy.encode要求输入的readerIndex从0开始，所以传一个slice进去
+            new Snappy().encode(frame.slice(bodyStart, bodyLen), compressed, bodyLen);
+        } catch (Throwable t) {
+            compressed.release();
+            throw t;
+        }
+
+        int compressedFrameLen = compressed.readableBytes();
+        if (compressedFrameLen >= frame.readableBytes()) {
+            //压缩后没有变小，比如已经压缩过的图片，直接发原始帧
+            compressed.release();
+            out.add(frame.retain());
+            return;
+        }
+        compressed.setShort(0, compressedFrameLen);
+        compressed.setByte(MyEncoder.FLAGS_OFFSET, flags | Protocol.FLAG_COMPRESSED);
+        out.add(compressed);
+    }
+
+    /**
+     * 解压frame中剩余的全部可读字节，返回的ByteBuf由调用方负责release
+     */
+    static ByteBuf decompress(ByteBufAllocator alloc, ByteBuf frame) {
+        //Snappy.decode按对方声明的长度直接分配，不先检查的话一个十几字节的帧就能让IO线程分配近2GB
+        //压缩前的body来自一个不超过MAX_FRAME_LENGTH的帧，声明的长度超过它的一定是非法数据
+        int length = readPreamble(frame);
+        if (length > MyEncoder.MAX_FRAME_LENGTH) {
+            throw new DecompressionException("uncompressed length exceeds " + MyEncoder.MAX_FRAME_LENGTH + ": " + length);
+        }
+        ByteBuf plain = alloc.buffer(length);
+        try {
+            //Snappy解码过程有状态，每次新建一个
+            new Snappy().decode(frame, plain);
+        } catch (Throwable t) {
+            plain.release();
+            throw t;
+        }
+        return plain;
+    }
+
+    /**
+     * 读出Snappy数据开头的压缩前长度，不移动readerIndex
+     * 格式是小端的varint，每字节低7位是数据，最高位为1表示后面还有，最多5个字节
+     * @return 压缩前的长度，超出int范围时返回Integer.MAX_VALUE
+     */
+    private static int readPreamble(ByteBuf in) {
+        long length = 0;
+        for (int i = 0; i < 5; i++) {
+            if (i >= in.readableBytes()) {
+                throw new DecompressionException("truncated snappy preamble");
+            }
+            int b = in.getUnsignedByte(in.readerIndex() + i);
+            length |= (long) (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                return (int) Math.min(length, Integer.MAX_VALUE);
+            }
+        }
+        throw new DecompressionException("malformed snappy preamble");
+    }
+}
@@ -0,0 +1,36 @@
+package com.ourjoy.netty.tutorial.netty.codec;
+
+/**
+ * 根据最近编码出的帧大小，预测下一帧需要多大的ByteBuf
+ * 变大时立即跟上，避免编码过程中ByteBuf扩容（扩容会重新分配并拷贝）；变小时缓慢回落，避免偶发的小包让预测值抖动
+ *
+ * 多个线程同时更新时可能丢失个别样本，对预测没有影响，所以这里不加锁
+ */
+public class EncodedSizePredictor {
+
+    static final int INITIAL_SIZE = 256;
+    private static final int MIN_SIZE = 64;
+    //每次回落剩余差值的1/8
+    private static final int DECAY_SHIFT = 3;
+
+    private volatile int estimate = INITIAL_SIZE;
+
+    /**
+     * @return 下一次编码建议申请的ByteBuf大小
+     */
+    public int nextSize() {
+        return estimate;
+    }
+
+    /**
+     * 记录一次实际编码出的帧大小
+     */
+    public void record(int actualSize) {
+        int current = estimate;
+        if (actualSize > current) {
+            estimate = actualSize;
+        } else if (actualSize < current) {
+            estimate = Math.max(MIN_SIZE, current - ((current - actualSize) >>> DECAY_SHIFT));
+        }
+    }
+}
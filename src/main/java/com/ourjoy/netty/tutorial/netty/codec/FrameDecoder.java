@@ -0,0 +1,93 @@
+package com.ourjoy.netty.tutorial.netty.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+/**
+ * 拆帧解码器，LengthFieldBasedFrameDecoder解码器是通过消息头部的一个长度为lengthFieldLength字节的消息，来判断消息体或整体消息的长度，从而读取完整整体消息
+ * 只负责把字节流切成一个个完整的帧（去掉LEN字段），帧的内容由后面的MyDecoder解析，两者之间可以插入只看帧头的处理器，比如AuthHandler
+ * 输出的帧是累积缓冲区的retainedSlice，不会发生拷贝，由下一个处理器负责release
+ *
+ * 每个连接占用的内存：累积缓冲区中的数据全部切完后，ByteToMessageDecoder会立即释放它，空闲连接不持有任何缓冲区；
+ * 只有读完一次后还剩半帧时才会保留，这时累积缓冲区往往就是那次读用的ByteBuf（最大可能64KB），只剩几个字节也占着整块，
+ * 所以在读循环结束时把这种缓冲区收缩到实际数据的大小，见trimCumulation
+ *
+ * 有状态（累积缓冲区），每个Channel一个实例
+ */
+public class FrameDecoder extends LengthFieldBasedFrameDecoder {
+
+    /**
+     * 累积缓冲区超过这个大小后，改为用CompositeByteBuf把新读到的数据挂上去，而不是扩容后整体拷贝
+     */
+    private static final int COMPOSITE_THRESHOLD = 16 * 1024;
+    /**
+     * 累积缓冲区容量超过这个大小，并且实际数据不到容量的1/4时，读循环结束后收缩
+     */
+    private static final int TRIM_THRESHOLD = 1024;
+
+    /**
+     * 小包用MERGE_CUMULATOR，连续内存读取最快；大帧分多次到达时用COMPOSITE_CUMULATOR，避免每来一段数据就把已累积的数据重新拷贝一遍
+     */
+    private static final Cumulator ADAPTIVE_CUMULATOR = new Cumulator() {
+        @Override
+        public ByteBuf cumulate(ByteBufAllocator alloc, ByteBuf cumulation, ByteBuf in) {
+            if (cumulation instanceof CompositeByteBuf
+                    || cumulation.readableBytes() + in.readableBytes() > COMPOSITE_THRESHOLD) {
+                return COMPOSITE_CUMULATOR.cumulate(alloc, cumulation, in);
+            }
+            return MERGE_CUMULATOR.cumulate(alloc, cumulation, in);
+        }
+    };
+
+    public FrameDecoder() {
+
+        /**
+         * ❉❉ 下面的长度单位都是字节 ❉❉
+         * lengthField  长度字段，它可能是消息体(Body)长度，也可能是整个消息(Frame)的长度，不同场景，lengthAdjustment的值会不同，解码器根据lengthField来解码消息。
+         *
+         * 案例：
+         *    BEFORE DECODE (28 bytes)                                           AFTER DECODE (26 bytes)
+         *    +--------+------------+-----------+------------+----------------+      +------------+-----------+------------+----------------+
+         *    | LEN    | MAGIC      | HDR LEN   | Header     | Body           |----->| MAGIC      | HDR LEN   | Header     | Body           |
+         *    | 0x001C | 0xABABABAB | 0x0008    | "WA HA HA" | "HELLO, WORLD" |      | 0xABABABAB | 0x0008    | "WA HA HA" | "HELLO, WORLD" |
+         *    +--------+-----------+-----------+------------+----------------+      +------------+-----------+------------+----------------+
+         *    注意LEN的值为0x001C，即28，那么LEN表示的是整个消息的长度，如果为0x001A（26），那么表示的从LEN结束位置以后剩余的长度
+         *
+         * maxFrameLength    一次发送的数据包的最大长度，超过长度的消息，就被丢弃不作处理
+         * lengthFieldOffset lengthField的起始位置，这个位置类似于数组的下标，从0开始计算， 本案例为0
+         * lengthFieldLength lengthField的长度，本案例为2
+         * lengthAdjustment  长度起始位置偏移量，它的计算公式：lengthAdjustment = 消息总长度 - lengthFieldOffset - lengthFieldLength - lengthField
+         *                   本案例为lengthAdjustment = 28 - 0 - 2 - 28 = -2， 这个-2其实就是lengthField开始计算长度的位置下标减去LEN结束位置下标
+         * initialBytesToStrip 需要跳过的字节数，即从整个消息中跳过initialBytesToStrip个字节的内容，只返回剩下的字节信息，上例中需要跳过LEN，即为2
+         *
+         * 注意：本项目实际的帧在MAGIC和HDR LEN之间还有1个字节的FLAGS，见MyEncoder，上面几个参数不受影响
+         */
+        super(1024 * 1024, 0, 2, -2, 2);
+        setCumulator(ADAPTIVE_CUMULATOR);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        super.channelReadComplete(ctx);
+        trimCumulation();
+    }
+
+    /**
+     * 剩下的半帧挪到缓冲区开头，然后缩小容量，池化的ByteBuf缩小到一半以下时会换一块小内存，大块内存还给内存池
+     * 有切出去的帧还没释放时(refCnt大于1)不能挪动数据，跳过；CompositeByteBuf只在大帧分段到达时出现，帧切完后整体释放，不需要处理
+     */
+    private void trimCumulation() {
+        ByteBuf cumulation = internalBuffer();
+        int readable = cumulation.readableBytes();
+        if (readable == 0 || cumulation instanceof CompositeByteBuf || cumulation.refCnt() != 1) {
+            return;
+        }
+        if (cumulation.capacity() >= TRIM_THRESHOLD && readable <= cumulation.capacity() >>> 2) {
+            cumulation.discardReadBytes();
+            cumulation.capacity(readable);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.ourjoy.netty.tutorial.netty.codec;
+
+import com.ourjoy.netty.tutorial.netty.handler.HeartbeatHandler;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.serializer.HeaderCodec;
+import com.ourjoy.netty.tutorial.netty.serializer.HeaderTable;
+import com.ourjoy.netty.tutorial.netty.serializer.SerializationException;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializers;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 连接级的header字典，每个连接两张HeaderTable：outbound给MyEncoder用，inbound给MyDecoder用，分别和对方的inbound、outbound保持一致
+ *
+ * 必须两端都支持才能开启，通过心跳帧协商：
+ * 1. 客户端连接建立后发一个带FLAG_DICT的PING，Header的requestId字段放自己能接受的表大小，见offer
+ * 2. 服务端同样配置了字典时，取两边表大小的较小值建表，回一个带FLAG_DICT的PONG，requestId为协商后的大小；否则回普通的PONG，不开启
+ * 3. 客户端收到带FLAG_DICT的PONG后按协商后的大小建表
+ * 两端都是在发出/收到协商帧的那一刻建表，之后发出的非心跳帧都带FLAG_DICT，header用动态表编码；心跳帧的header始终是普通编码
+ * 老版本的服务端不认识FLAG_DICT，只会回普通的PONG，客户端就一直用普通编码
+ *
+ * 在ChannelInitializer中执行 ch.attr(HeaderDictionary.KEY).set(new HeaderDictionary(size)) 即可让该连接支持字典，
+ * 协商和建表都在IO线程上进行，不需要同步
+ */
+public class HeaderDictionary {
+
+    public static final AttributeKey<HeaderDictionary> KEY = AttributeKey.valueOf("headerDictionary");
+
+    //本端能接受的表大小
+    private final int maxSize;
+    //协商完成之前都是null
+    private HeaderTable outbound;
+    private HeaderTable inbound;
+
+    public HeaderDictionary(int maxSize) {
+        if (maxSize < HeaderTable.ENTRY_OVERHEAD) {
+            throw new IllegalArgumentException("maxSize must be at least " + HeaderTable.ENTRY_OVERHEAD + ": " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return 连接上的字典，没有配置时返回null
+     */
+    public static HeaderDictionary get(Channel channel) {
+        return channel.attr(KEY).get();
+    }
+
+    /**
+     * 发起协商，连接建立后调用一次
+     */
+    public static void offer(Channel channel) {
+        HeaderDictionary dictionary = get(channel);
+        if (null != dictionary && !dictionary.isEnabled()) {
+            channel.writeAndFlush(dictionary.newHeartbeat((byte) (Protocol.FLAG_PING | Protocol.FLAG_DICT), dictionary.maxSize));
+        }
+    }
+
+    /**
+     * 处理对方带FLAG_DICT的PING，按两端较小的表大小建表
+     * @return 要回复的PONG，本端没有配置字典时返回null，由调用方回普通的PONG
+     */
+    public static Protocol accept(Channel channel, Protocol ping) {
+        HeaderDictionary dictionary = get(channel);
+        if (null == dictionary) {
+            return null;
+        }
+        if (!dictionary.isEnabled()) {
+            dictionary.enable((int) Math.min(dictionary.maxSize, ping.getHeader().getRequestId()));
+        }
+        return dictionary.newHeartbeat((byte) (Protocol.FLAG_PONG | Protocol.FLAG_DICT), dictionary.inbound.maxSize());
+    }
+
+    /**
+     * 处理对方带FLAG_DICT的PONG，按对方回复的大小建表
+     */
+    public static void accepted(Channel channel, Protocol pong) {
+        HeaderDictionary dictionary = get(channel);
+        if (null != dictionary && !dictionary.isEnabled()) {
+            dictionary.enable((int) Math.min(dictionary.maxSize, pong.getHeader().getRequestId()));
+        }
+    }
+
+    /**
+     * @return 带该标志位的帧的header是否用动态表编码，心跳帧上的FLAG_DICT只表示协商
+     */
+    public static boolean isIndexed(byte flags) {
+        return (flags & Protocol.FLAG_DICT) != 0 && (flags & (Protocol.FLAG_PING | Protocol.FLAG_PONG)) == 0;
+    }
+
+    /**
+     * 解码帧中的header
+     * @param peek 为true时不修改动态表，见HeaderCodec.readIndexed
+     */
+    public static Header decodeHeader(Channel channel, byte flags, ByteBuf header, boolean peek) {
+        if (!isIndexed(flags)) {
+            return (Header) Serializers.get(channel).deserialize(header);
+        }
+        HeaderDictionary dictionary = get(channel);
+        if (null == dictionary || !dictionary.isEnabled()) {
+            throw new SerializationException("header dictionary not negotiated on " + channel);
+        }
+        return HeaderCodec.readIndexed(header, dictionary.inbound, peek);
+    }
+
+    /**
+     * 开始偷看连续多个header：批量帧中后面的子消息可能引用前面子消息插入的条目，逐条peek会对不上，
+     * 需要在这之后逐条正式解码（peek为false），再调用rollbackInbound撤销对动态表的修改，见AuthHandler
+     */
+    public static void markInbound(Channel channel) {
+        HeaderDictionary dictionary = get(channel);
+        if (null != dictionary && dictionary.isEnabled()) {
+            dictionary.inbound.mark();
+        }
+    }
+
+    /**
+     * 撤销markInbound之后对动态表的所有修改
+     */
+    public static void rollbackInbound(Channel channel) {
+        HeaderDictionary dictionary = get(channel);
+        if (null != dictionary && dictionary.isEnabled()) {
+            dictionary.inbound.rollback();
+        }
+    }
+
+    public boolean isEnabled() {
+        return null != outbound;
+    }
+
+    /**
+     * @return 发送方向的表，协商完成之前返回null
+     */
+    public HeaderTable outbound() {
+        return outbound;
+    }
+
+    private void enable(int size) {
+        if (size < HeaderTable.ENTRY_OVERHEAD) {
+            throw new SerializationException("header table size too small: " + size);
+        }
+        outbound = new HeaderTable(size);
+        inbound = new HeaderTable(size);
+    }
+
+    private Protocol newHeartbeat(byte flags, int size) {
+        Protocol protocol = HeartbeatHandler.newHeartbeat(flags);
+        protocol.getHeader().setRequestId(size);
+        return protocol;
+    }
+}
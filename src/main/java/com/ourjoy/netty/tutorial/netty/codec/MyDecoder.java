@@ -1,100 +1,147 @@
 package com.ourjoy.netty.tutorial.netty.codec;
 
+import com.ourjoy.netty.tutorial.netty.handler.BatchHandler;
+import com.ourjoy.netty.tutorial.netty.metrics.Metrics;
 import com.ourjoy.netty.tutorial.netty.protocol.Header;
 import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
-import com.ourjoy.netty.tutorial.netty.serializer.ObjectSerializer;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializer;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializers;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.util.Attribute;
 import lombok.extern.slf4j.Slf4j;
 
-import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
- * LengthFieldBasedFrameDecoder解码器是通过消息头部的一个长度为lengthFieldLength字节的消息，来判断消息体或整体消息的长度，从而读取完整整体消息
+ * 自定义解码器，把FrameDecoder切出来的完整帧解析为Protocol对象，必须放在FrameDecoder后面
+ * 帧格式见MyEncoder，这里拿到的帧已经去掉了LEN字段；批量帧（见Batch）中的每条子消息各解出一个Protocol
+ *
+ * 拆帧的累积状态都在FrameDecoder里，本类无状态，所有Channel共享一个实例
  */
 @Slf4j
-public class MyDecoder extends LengthFieldBasedFrameDecoder {
+@ChannelHandler.Sharable
+public class MyDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+    //指标，为null时不统计
+    private final Metrics metrics;
+    //为true时body不在这里反序列化，见Protocol
+    private final boolean lazyBody;
 
     public MyDecoder() {
+        this(null, false);
+    }
+
+    /**
+     * @param metrics 统计解码帧数和解码耗时，为null时不统计
+     * @param lazyBody 为true时body以retainedSlice的形式交给Protocol，第一次getBody时才反序列化，
+     *                 后续处理器必须在release Protocol之前取完body，SimpleChannelInboundHandler会在channelRead0返回后自动release
+     */
+    public MyDecoder(Metrics metrics, boolean lazyBody) {
+        this.metrics = metrics;
+        this.lazyBody = lazyBody;
+    }
 
-        /**
-         * ❉❉ 下面的长度单位都是字节 ❉❉
-         * lengthField  长度字段，它可能是消息体(Body)长度，也可能是整个消息(Frame)的长度，不同场景，lengthAdjustment的值会不同，解码器根据lengthField来解码消息。
-         *
-         * 案例：
-         *    BEFORE DECODE (28 bytes)                                           AFTER DECODE (26 bytes)
-         *    +--------+------------+-----------+------------+----------------+      +------------+-----------+------------+----------------+
-         *    | LEN    | MAGIC      | HDR LEN   | Header     | Body           |----->| MAGIC      | HDR LEN   | Header     | Body           |
-         *    | 0x001C | 0xABABABAB | 0x0008    | "WA HA HA" | "HELLO, WORLD" |      | 0xABABABAB | 0x0008    | "WA HA HA" | "HELLO, WORLD" |
-         *    +--------+-----------+-----------+------------+----------------+      +------------+-----------+------------+----------------+
-         *    注意LEN的值为0x001C，即28，那么LEN表示的是整个消息的长度，如果为0x001A（26），那么表示的从LEN结束位置以后剩余的长度
-         *
-         * maxFrameLength    一次发送的数据包的最大长度，超过长度的消息，就被丢弃不作处理
-         * lengthFieldOffset lengthField的起始位置，这个位置类似于数组的下标，从0开始计算， 本案例为0
-         * lengthFieldLength lengthField的长度，本案例为2
-         * lengthAdjustment  长度起始位置偏移量，它的计算公式：lengthAdjustment = 消息总长度 - lengthFieldOffset - lengthFieldLength - lengthField
-         *                   本案例为lengthAdjustment = 28 - 0 - 2 - 28 = -2， 这个-2其实就是lengthField开始计算长度的位置下标减去LEN结束位置下标
-         * initialBytesToStrip 需要跳过的字节数，即从整个消息中跳过initialBytesToStrip个字节的内容，只返回剩下的字节信息，上例中需要跳过LEN，即为2
-         *
-         */
-        super(1024 * 1024, 0, 2, -2, 2);
+    /**
+     * 反序列化body，压缩过的先解压到一个池化buffer中
+     * @param body 序列化后的body，读取后readerIndex会移动
+     */
+    public static Object decodeBody(ByteBuf body, Serializer serializer, boolean compressed) {
+        if (!compressed) {
+            return serializer.deserialize(body);
+        }
+        ByteBuf plain = CompressionEncoder.decompress(body.alloc(), body);
+        try {
+            return serializer.deserialize(plain);
+        } finally {
+            plain.release();
+        }
     }
 
+    /**
+     * 帧由MessageToMessageDecoder在本方法返回后release
+     */
     @Override
-    public Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
-        ByteBuf frame = null;
+    protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) throws Exception {
         try {
-            //先调用父类的decode方法，拿到处理后的结果，本案例是拿到LEN后面的内容，LEN会被丢掉
-            frame = (ByteBuf) super.decode(ctx, in);
-            if (null == frame) {
-                log.error("frame is null");
-                return null;
-            }
+            long start = null == metrics ? 0 : System.nanoTime();
 
-            ByteBuffer byteBuffer = frame.nioBuffer();
-            //byteBuffer的容量，实际就是我们要的数据的长度
-            Integer capacity = byteBuffer.capacity();
+            //frame的可读字节数，实际就是我们要的数据的长度
+            int length = frame.readableBytes();
 
-            //已经通过父类解码器的initialBytesToStrip属性，跳过了LEN字段，直接读取魔数
-            Integer magicNum = byteBuffer.getInt();
+            //FrameDecoder已经跳过了LEN字段，直接读取魔数
+            //这里不再调用frame.nioBuffer()，CompositeByteBuf调用它时会把所有组件合并拷贝到一个新的堆内ByteBuffer中
+            int magicNum = frame.readInt();
             if (0xABABABAB == magicNum) {
-                //读取headerLen,便于完整读取Header的二进制数组
-                Short headerLen = byteBuffer.getShort();
-
-                //创建一个byte[]，来存储header
-                byte[] headerBytes = new byte[headerLen];
-                //从byteBuffer中读取headerLen长度的字节到headerBytes数组中
-                byteBuffer.get(headerBytes);
-                //将headerBytes数组反序列化为Header对象
-                Header header = (Header) ObjectSerializer.toObject(headerBytes);
+                Serializer serializer = Serializers.get(ctx.channel());
 
-                //计算出bodyLen
-                Integer bodyLen = capacity - 4 - 2 - headerBytes.length;
-                byte[] bodyBytes = new byte[bodyLen];
-                byteBuffer.get(bodyBytes);
-                //将bodyBytes数组反序列化为Header对象
-                Object body = ObjectSerializer.toObject(bodyBytes);
+                //读取标志位
+                byte flags = frame.readByte();
+                //读取headerLen,便于完整读取Header
+                int headerLen = frame.readUnsignedShort();
 
-                //构建protocol对象返回
-                Protocol protocol = new Protocol();
-                protocol.setMagicNum(magicNum);
-                protocol.setLength(capacity.shortValue());
-                protocol.setHeaderLength(headerLen);
-                protocol.setHeader(header);
-                protocol.setBody(body);
-                return protocol;
+                if ((flags & Protocol.FLAG_BATCH) != 0) {
+                    //心跳不会合进批量帧，带心跳标志位的批量帧是伪造的，AuthHandler也不会把它当心跳放行
+                    if ((flags & (Protocol.FLAG_PING | Protocol.FLAG_PONG)) != 0) {
+                        throw new CorruptedFrameException("batch frame must not carry PING/PONG, flags: " + flags);
+                    }
+                    //批量帧，格式见Batch，一次把所有子消息都解出来
+                    frame.skipBytes(headerLen);
+                    Attribute<Boolean> peerBatching = ctx.channel().attr(BatchHandler.PEER_BATCHING);
+                    if (null == peerBatching.get()) {
+                        peerBatching.set(Boolean.TRUE);
+                    }
+                    while (frame.isReadable()) {
+                        int subLen = frame.readUnsignedShort();
+                        ByteBuf sub = frame.readSlice(subLen);
+                        byte subFlags = sub.readByte();
+                        int subHeaderLen = sub.readUnsignedShort();
+                        out.add(decodeMessage(ctx, serializer, magicNum, subFlags, subLen, subHeaderLen, sub));
+                    }
+                } else {
+                    out.add(decodeMessage(ctx, serializer, magicNum, flags, length, headerLen, frame));
+                }
+                if (null != metrics) {
+                    metrics.recordDecode(System.nanoTime() - start);
+                }
             }
 
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             ctx.channel().close();
-        } finally {
-            if (null != frame) {
-                frame.release();
-            }
+        }
+    }
+
+    /**
+     * 解码一条消息，in的readerIndex在header开头，header之后剩下的全部是body
+     */
+    private Protocol decodeMessage(ChannelHandlerContext ctx, Serializer serializer, int magicNum, byte flags, int length, int headerLen, ByteBuf in) {
+        //readSlice只是在帧上划出一段视图，不分配byte[]，序列化组件直接在这段视图上反序列化出Header对象
+        //带FLAG_DICT的帧用连接的动态表解码，字典只和编解码有关，解码后就清掉这个标志位
+        Header header = HeaderDictionary.decodeHeader(ctx.channel(), flags, in.readSlice(headerLen), false);
+        if (HeaderDictionary.isIndexed(flags)) {
+            flags &= ~Protocol.FLAG_DICT;
         }
 
-        return null;
+        //构建protocol对象返回
+        Protocol protocol = new Protocol();
+        protocol.setMagicNum(magicNum);
+        protocol.setLength((short) length);
+        protocol.setHeaderLength((short) headerLen);
+        protocol.setHeader(header);
+        if (lazyBody) {
+            //剩下的就是body，retain一份交给Protocol，帧本身在decode返回后由MessageToMessageDecoder释放
+            protocol.setFlags(flags);
+            protocol.setRawBody(in.readRetainedSlice(in.readableBytes()), serializer);
+        } else {
+            //剩下的就是body，同样直接在帧上反序列化
+            boolean compressed = (flags & Protocol.FLAG_COMPRESSED) != 0;
+            protocol.setFlags((byte) (flags & ~Protocol.FLAG_COMPRESSED));
+            protocol.setBody(decodeBody(in.readSlice(in.readableBytes()), serializer, compressed));
+        }
+        return protocol;
     }
-}
\ No newline at end of file
+}
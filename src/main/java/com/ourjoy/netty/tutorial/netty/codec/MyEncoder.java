@@ -1,48 +1,255 @@
 package com.ourjoy.netty.tutorial.netty.codec;
 
+import com.ourjoy.netty.tutorial.netty.metrics.Metrics;
+import com.ourjoy.netty.tutorial.netty.protocol.Batch;
 import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
-import com.ourjoy.netty.tutorial.netty.serializer.ObjectSerializer;
+import com.ourjoy.netty.tutorial.netty.serializer.HeaderCodec;
+import com.ourjoy.netty.tutorial.netty.serializer.HeaderTable;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializer;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializers;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * 自定义编码器，将Protocol对象编码为二进制字节数组
+ *
+ * 无状态（大小预测器是线程安全的，多个连接共用反而样本更多），所有Channel共享一个实例
  */
-public class MyEncoder extends MessageToByteEncoder<Protocol> {
+@ChannelHandler.Sharable
+public class MyEncoder extends MessageToByteEncoder<Object> {
+
+    /**
+     * 消息总长度字段只有2个字节，一帧最多65535字节
+     */
+    public static final int MAX_FRAME_LENGTH = 0xFFFF;
+    //FLAGS字段在帧中的偏移量：LEN(2) + MAGIC(4)
+    public static final int FLAGS_OFFSET = 6;
+    //HDR LEN字段在帧中的偏移量：LEN(2) + MAGIC(4) + FLAGS(1)
+    public static final int HEADER_LENGTH_OFFSET = 7;
+    //header之前固定部分的长度：LEN(2) + MAGIC(4) + FLAGS(1) + HDR LEN(2)
+    public static final int PREFIX_LENGTH = 9;
+
+    //原样转发body时，为header预留的空间，不够时ByteBuf自动扩容
+    private static final int RAW_BODY_HEADER_RESERVE = 128;
+
+    //按body类型分别预测编码后的大小，不同业务对象的大小差别很大，混在一起预测会不准
+    private final ConcurrentMap<Class<?>, EncodedSizePredictor> predictors = new ConcurrentHashMap<>();
+    private final EncodedSizePredictor nullBodyPredictor = new EncodedSizePredictor();
+    //指标，为null时不统计
+    private final Metrics metrics;
+
+    public MyEncoder() {
+        this(null);
+    }
+
+    /**
+     * @param metrics 统计编码帧数和编码耗时，为null时不统计
+     */
+    public MyEncoder(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 除了Protocol，还接受Batch
+     */
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof Protocol || msg instanceof Batch;
+    }
+
+    /**
+     * MessageToByteEncoder默认申请的ByteBuf初始只有256字节，大消息在编码过程中会多次扩容拷贝
+     * 这里按同类型消息最近的大小申请池化的堆外buffer，一次到位，Batch按其中每条消息的大小累加
+     */
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, Object msg, boolean preferDirect) throws Exception {
+        int size;
+        if (msg instanceof Batch) {
+            size = PREFIX_LENGTH;
+            for (Protocol protocol : ((Batch) msg).getMessages()) {
+                size += sizeOf(protocol);
+            }
+        } else {
+            size = sizeOf((Protocol) msg);
+        }
+        return preferDirect ? ctx.alloc().ioBuffer(size) : ctx.alloc().heapBuffer(size);
+    }
+
+    private int sizeOf(Protocol protocol) {
+        //原样转发的body大小是确定的，不需要预测
+        return protocol.hasRawBody() ? PREFIX_LENGTH + RAW_BODY_HEADER_RESERVE + protocol.getRawBody().readableBytes()
+                : predictor(protocol).nextSize();
+    }
 
     /**
-     * 我们这里将protocol对象序列化为5部分，分别如下：
+     * 我们这里将protocol对象序列化为6部分，分别如下：
      * 消息总长度：长度设计占2个字节，值表示整个消息包所占的字节数
      * 魔数：长度设计占4个字节，固定为0xABABABAB
+     * 标志位：长度设计占1个字节，每一位表示一种帧属性，见Protocol.FLAG_*
      * header长度：长度设计占2个字节，值表示header对象序列化后byte[]的length
      * header字节数组：表示header对象序列化后的byte[]
      * body字节数组：表示body对象序列化后的byte[]
+     * header和body的序列化方式由当前Channel上配置的Serializer决定，见Serializers
+     * Protocol持有未反序列化过的body字节时（见Protocol.hasRawBody），body部分直接拷贝这些字节，不经过序列化
+     * 连接协商开启了header字典时（见HeaderDictionary），非心跳帧的header用连接的动态表编码，并设置Protocol.FLAG_DICT
+     * Batch编码为批量帧，格式见Batch
+     *
+     * 长度字段在序列化之前是不知道的，所以先写0占位，header和body直接序列化进out后再回填，整个过程只写一遍
      *
      * @param ctx
-     * @param protocol
+     * @param msg
      * @param out
      * @throws Exception
      */
     @Override
-    protected void encode(ChannelHandlerContext ctx, Protocol protocol, ByteBuf out) throws Exception {
-        //将Header对象序列化为byte[]
-        byte[] headerBytes = ObjectSerializer.toArray(protocol.getHeader());
-        //将Body对象序列化为byte[]
-        byte[] bodyBytes = ObjectSerializer.toArray(protocol.getBody());
-
-        //写入消息总长度，值=自身占2byte + 魔数占4byte + header长度占2byte + headerBytes.length + bodyBytes.length
-        out.writeShort(2 + 4 + 2 + headerBytes.length + bodyBytes.length);
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        long start = null == metrics ? 0 : System.nanoTime();
+        Serializer serializer = Serializers.get(ctx.channel());
+        HeaderDictionary dictionary = HeaderDictionary.get(ctx.channel());
+        HeaderTable table = null == dictionary ? null : dictionary.outbound();
+
+        if (null != table) {
+            //编码失败时这一帧不会发出去，对表的修改要撤销，否则和对方的表对不上
+            table.mark();
+        }
+        try {
+            if (msg instanceof Batch) {
+                encodeBatch((Batch) msg, serializer, table, out);
+            } else {
+                encodeFrame((Protocol) msg, serializer, table, out);
+            }
+        } catch (Throwable t) {
+            if (null != table) {
+                table.rollback();
+            }
+            throw t;
+        }
+        if (null != table) {
+            table.release();
+        }
+
+        if (null != metrics) {
+            metrics.recordEncode(System.nanoTime() - start);
+        }
+
+        //**注意这里只是编码，将数据写入到ByteBuf即可，Netty后续流程会将数据写入Channel**
+    }
+
+    private void encodeFrame(Protocol protocol, Serializer serializer, HeaderTable table, ByteBuf out) {
+        int frameStart = out.writerIndex();
+        //消息总长度，先占位
+        out.writeShort(0);
         //写入魔数0xABABABAB
         out.writeInt(protocol.getMagicNum());
-        //写入header长度
-        out.writeShort(headerBytes.length);
-        //写入headerBytes
-        out.writeBytes(headerBytes);
-        //写入bodyBytes
-        out.writeBytes(bodyBytes);
+        writeMessage(protocol, serializer, table, out);
 
-        //**注意这里只是编码，将数据写入到ByteBuf即可，Netty后续流程会将数据写入Channel**
+        //消息总长度 = 自身占2byte + 魔数占4byte + 标志位占1byte + header长度占2byte + header + body
+        int frameLen = out.writerIndex() - frameStart;
+        if (frameLen > MAX_FRAME_LENGTH) {
+            throw new EncoderException("frame length exceeds " + MAX_FRAME_LENGTH + ": " + frameLen);
+        }
+        out.setShort(frameStart, frameLen);
+        if (!protocol.hasRawBody()) {
+            predictor(protocol).record(frameLen);
+        }
+    }
+
+    /**
+     * 子消息依次写在批量帧中，写完一条发现帧超长时，把这条挪到一个新的批量帧里，所以out中可能有多个批量帧
+     */
+    private void encodeBatch(Batch batch, Serializer serializer, HeaderTable table, ByteBuf out) {
+        int frameStart = beginBatchFrame(out);
+        for (Protocol protocol : batch.getMessages()) {
+            int subStart = out.writerIndex();
+            //子消息长度，先占位
+            out.writeShort(0);
+            writeMessage(protocol, serializer, table, out);
+            int subLen = out.writerIndex() - subStart;
+            //单独放进一个新的批量帧也放不下的子消息，不管是不是这一帧的第一条都只能报错，否则长度字段被截断，对方拆帧全部错位
+            if (PREFIX_LENGTH + subLen > MAX_FRAME_LENGTH) {
+                throw new EncoderException("frame length exceeds " + MAX_FRAME_LENGTH + ": " + (PREFIX_LENGTH + subLen));
+            }
+            out.setShort(subStart, subLen - 2);
+
+            if (out.writerIndex() - frameStart > MAX_FRAME_LENGTH) {
+                //上面已经保证这条子消息单独成帧放得下，所以它不会是这一帧的第一条
+                //子消息的header已经按顺序改过动态表了，挪到下一帧不影响对方按同样的顺序解码
+                ByteBuf sub = out.alloc().buffer(out.writerIndex() - subStart);
+                try {
+                    sub.writeBytes(out, subStart, out.writerIndex() - subStart);
+                    out.writerIndex(subStart);
+                    out.setShort(frameStart, subStart - frameStart);
+                    frameStart = beginBatchFrame(out);
+                    out.writeBytes(sub);
+                } finally {
+                    sub.release();
+                }
+            }
+        }
+        out.setShort(frameStart, out.writerIndex() - frameStart);
+    }
+
+    private static int beginBatchFrame(ByteBuf out) {
+        int frameStart = out.writerIndex();
+        out.writeShort(0);
+        out.writeInt(0xABABABAB);
+        out.writeByte(Protocol.FLAG_BATCH);
+        //批量帧本身没有header
+        out.writeShort(0);
+        return frameStart;
+    }
+
+    /**
+     * 写FLAGS、HDR LEN、header、body，普通帧和批量帧中的子消息共用
+     */
+    private void writeMessage(Protocol protocol, Serializer serializer, HeaderTable table, ByteBuf out) {
+        byte flags = protocol.getFlags();
+        if ((flags & (Protocol.FLAG_PING | Protocol.FLAG_PONG)) != 0) {
+            //心跳帧上的FLAG_DICT是协商用的，原样保留，header始终是普通编码
+            table = null;
+        } else {
+            //其他帧是否带FLAG_DICT只取决于这个连接是否已经开启了字典
+            flags = (byte) (null == table ? flags & ~Protocol.FLAG_DICT : flags | Protocol.FLAG_DICT);
+        }
+        //写入标志位
+        out.writeByte(flags);
+        //header长度，先占位
+        int headerLenIndex = out.writerIndex();
+        out.writeShort(0);
+
+        //将Header对象直接序列化到out
+        if (null != table) {
+            HeaderCodec.writeIndexed(protocol.getHeader(), out, table);
+        } else {
+            serializer.serialize(protocol.getHeader(), out);
+        }
+        out.setShort(headerLenIndex, out.writerIndex() - headerLenIndex - 2);
+        if (protocol.hasRawBody()) {
+            //body从没有被反序列化过，直接把收到的字节原样写出，FLAG_COMPRESSED也原样保留
+            ByteBuf rawBody = protocol.getRawBody();
+            out.writeBytes(rawBody, rawBody.readerIndex(), rawBody.readableBytes());
+        } else {
+            //将Body对象直接序列化到out
+            serializer.serialize(protocol.getBody(), out);
+        }
+    }
+
+    private EncodedSizePredictor predictor(Protocol protocol) {
+        Object body = protocol.getBody();
+        if (null == body) {
+            return nullBodyPredictor;
+        }
+        EncodedSizePredictor predictor = predictors.get(body.getClass());
+        if (null == predictor) {
+            predictor = predictors.computeIfAbsent(body.getClass(), type -> new EncodedSizePredictor());
+        }
+        return predictor;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 准入控制，放在MyDecoder、HeartbeatHandler、ResponseCacheHandler后面、业务处理器前面，在IO线程上执行
+ *
+ * 以下任一条件满足时，请求不再往后传，直接回一个带Protocol.FLAG_OVERLOADED的空响应：
+ * 1. 该连接的IO线程或者业务线程的任务排队延迟超过目标值，见QueueDelayProbe
+ * 2. 该连接已经交给业务处理器、还没有回响应的请求数达到上限
+ * 3. 该连接的令牌桶里没有令牌了，令牌按固定速率补充，最多攒burst个
+ *
+ * 过载时如果继续把请求排进队列，所有请求的延迟一起变长，直到客户端超时，处理完的响应也没人要了，有效吞吐跟着崩溃；
+ * 尽早拒绝多出来的请求，队列里的请求都能在目标延迟内处理完，有效吞吐保持平稳，被拒绝的客户端马上就知道，可以退避或者换一个节点
+ * 放行时记下时间，开启业务线程池时由QueueTimeoutHandler在业务线程上再检查一次实际的排队时间
+ * 拒绝时只用到Header中的requestId，开启lazyBody时body不会被反序列化；响应缓存命中的请求在前面就返回了，不受限制
+ *
+ * 有状态，每个Channel一个实例，只在IO线程上访问
+ */
+@Slf4j
+public class AdmissionHandler extends ChannelDuplexHandler {
+
+    //排队延迟探针，为null时不检查
+    private final QueueDelayProbe probe;
+    private final int maxInflight;
+    //每纳秒补充的令牌数，0表示不限流
+    private final double permitsPerNano;
+    private final double burst;
+    //拒绝的请求计数，可以为null
+    private final LongAdder rejected;
+
+    //业务处理器所在的线程，没有业务线程池时就是IO线程
+    private EventExecutor businessExecutor;
+    //已经交给业务处理器、还没有写出响应的请求的requestId，按requestId释放，只有这些请求自己的响应才会释放名额
+    private final Set<Long> inflight = new HashSet<>();
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param probe 排队延迟探针，为null时不按排队延迟拒绝
+     * @param maxInflight 每个连接在途请求数上限，0表示不限制
+     * @param permitsPerSecond 每个连接每秒允许的请求数，0表示不限流
+     * @param burst 令牌桶容量，允许的突发请求数
+     * @param rejected 拒绝的请求计数，可以为null
+     */
+    public AdmissionHandler(QueueDelayProbe probe, int maxInflight, int permitsPerSecond, int burst, LongAdder rejected) {
+        this.probe = probe;
+        this.maxInflight = maxInflight;
+        this.permitsPerNano = (double) permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.rejected = rejected;
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 构建一个过载响应，body为空
+     * @param requestId 被拒绝的请求的requestId
+     */
+    public static Protocol newOverloaded(long requestId) {
+        Header header = new Header();
+        header.setRequestId(requestId);
+        Protocol response = new Protocol();
+        response.setMagicNum(0xABABABAB);
+        response.setFlags(Protocol.FLAG_OVERLOADED);
+        response.setHeader(header);
+        return response;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof Protocol) || null == ((Protocol) msg).getHeader()) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        if (admit(ctx)) {
+            if (maxInflight > 0) {
+                inflight.add(((Protocol) msg).getHeader().getRequestId());
+            }
+            if (null != probe) {
+                ((Protocol) msg).setAdmittedNanos(System.nanoTime());
+            }
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        long requestId = ((Protocol) msg).getHeader().getRequestId();
+        ReferenceCountUtil.release(msg);
+        if (null != rejected) {
+            rejected.increment();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("request rejected by admission control, inflight: " + inflight.size() + ", channel: " + ctx.channel());
+        }
+        ctx.writeAndFlush(newOverloaded(requestId));
+    }
+
+    private boolean admit(ChannelHandlerContext ctx) {
+        if (maxInflight > 0 && inflight.size() >= maxInflight) {
+            return false;
+        }
+        if (null != probe && (probe.isOverloaded(ctx.executor()) || probe.isOverloaded(businessExecutor(ctx)))) {
+            return false;
+        }
+        //放在最后，被其他条件拒绝的请求不消耗令牌
+        return permitsPerNano <= 0 || acquire();
+    }
+
+    private EventExecutor businessExecutor(ChannelHandlerContext ctx) {
+        if (null == businessExecutor) {
+            //pipeline最后一个处理器就是业务处理器，以业务线程池注册时同一个Channel固定分到其中一个线程
+            ChannelHandlerContext last = ctx.pipeline().lastContext();
+            businessExecutor = null == last ? ctx.executor() : last.executor();
+        }
+        return businessExecutor;
+    }
+
+    private boolean acquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerNano);
+        lastRefillNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        //业务处理器在业务线程上写出的响应，经过这里时已经回到了IO线程
+        //正常响应、FLAG_ERROR、QueueTimeoutHandler和OffloadHandler回的FLAG_OVERLOADED都会释放名额，所以业务处理器出错时也必须回响应
+        if (!inflight.isEmpty() && msg instanceof Protocol && null != ((Protocol) msg).getHeader()
+                && !((Protocol) msg).hasFlag((byte) (Protocol.FLAG_PING | Protocol.FLAG_PONG))) {
+            inflight.remove(((Protocol) msg).getHeader().getRequestId());
+        }
+        ctx.write(msg, promise);
+    }
+}
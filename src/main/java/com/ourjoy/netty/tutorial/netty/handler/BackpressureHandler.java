@@ -0,0 +1,45 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务端写背压：连接的发送缓冲区超过高水位（isWritable变为false）时关闭autoRead，不再读取该连接的新请求，
+ * 回落到低水位以下后重新打开autoRead
+ * 对端不读响应时，服务端就不会继续读它的请求，每个连接积压的响应最多只有高水位那么多，内存不会无限增长
+ * 水位通过ChannelOption.WRITE_BUFFER_WATER_MARK设置，见ServerConfig
+ *
+ * 无状态，所有Channel共享一个实例
+ */
+@Slf4j
+@ChannelHandler.Sharable
+public class BackpressureHandler extends ChannelInboundHandlerAdapter {
+
+    private final LongAdder pauses = new LongAdder();
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        Channel channel = ctx.channel();
+        boolean writable = channel.isWritable();
+        if (!writable) {
+            pauses.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("outbound buffer above high water mark, stop reading, channel: " + channel);
+            }
+        }
+        channel.config().setAutoRead(writable);
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    /**
+     * @return 因发送缓冲区超过高水位而暂停读取的次数
+     */
+    public long getPauseCount() {
+        return pauses.sum();
+    }
+}
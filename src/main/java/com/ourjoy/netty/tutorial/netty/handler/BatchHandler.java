@@ -0,0 +1,132 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Batch;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.PromiseNotifier;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把多条Protocol攒成一个Batch写出，由MyEncoder编码为批量帧，必须放在MyEncoder后面（出站方向先经过本处理器）
+ *
+ * 两种模式：
+ * 1. linger大于0（客户端）：第一条消息到达后最多等linger，或者攒够maxBatchSize条，就把攒下的消息作为一个批量帧写出并flush；
+ *    有消息在攒的时候调用方的flush不往下传，由写出批量帧时统一flush
+ * 2. linger为0（服务端）：攒到下一次flush为止，FlushConsolidationHandler要放在本处理器后面（靠近业务处理器的一侧），
+ *    这样看到的是合并后的flush，同一次读循环里产生的响应合成一个批量帧；只对发过批量帧的连接生效（MyDecoder设置PEER_BATCHING），老客户端不认识批量帧
+ * 只攒了一条消息时按普通帧写出；心跳帧不合并，写出前先把攒下的消息写出去，保持顺序
+ *
+ * 有状态，每个Channel一个实例，只在IO线程上访问
+ */
+public class BatchHandler extends ChannelOutboundHandlerAdapter {
+
+    /**
+     * 对方是否发过批量帧，由MyDecoder设置
+     */
+    public static final AttributeKey<Boolean> PEER_BATCHING = AttributeKey.valueOf("peerBatching");
+
+    private final long lingerNanos;
+    private final int maxBatchSize;
+    private final List<Protocol> messages = new ArrayList<>();
+    private final List<ChannelPromise> promises = new ArrayList<>();
+    private ScheduledFuture<?> lingerTask;
+
+    /**
+     * @param lingerMicros 第一条消息最多等多久，0表示攒到下一次flush
+     * @param maxBatchSize 一个批量帧最多多少条消息，攒够了立即写出
+     */
+    public BatchHandler(long lingerMicros, int maxBatchSize) {
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof Protocol) || !batchable(ctx, (Protocol) msg)) {
+            writePending(ctx);
+            ctx.write(msg, promise);
+            return;
+        }
+        messages.add((Protocol) msg);
+        promises.add(promise);
+        if (messages.size() >= maxBatchSize) {
+            writePending(ctx);
+            if (lingerNanos > 0) {
+                ctx.flush();
+            }
+        } else if (lingerNanos > 0 && null == lingerTask) {
+            lingerTask = ctx.executor().schedule(() -> {
+                lingerTask = null;
+                writePending(ctx);
+                ctx.flush();
+            }, lingerNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (lingerNanos > 0 && !messages.isEmpty()) {
+            //等linger到期或者攒够了再一起flush
+            return;
+        }
+        writePending(ctx);
+        ctx.flush();
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        writePending(ctx);
+        ctx.flush();
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (null != lingerTask) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        ClosedChannelException cause = new ClosedChannelException();
+        for (int i = 0; i < messages.size(); i++) {
+            ReferenceCountUtil.release(messages.get(i));
+            promises.get(i).tryFailure(cause);
+        }
+        messages.clear();
+        promises.clear();
+    }
+
+    private boolean batchable(ChannelHandlerContext ctx, Protocol protocol) {
+        if (protocol.hasFlag(Protocol.FLAG_PING) || protocol.hasFlag(Protocol.FLAG_PONG)) {
+            return false;
+        }
+        return lingerNanos > 0 || Boolean.TRUE.equals(ctx.channel().attr(PEER_BATCHING).get());
+    }
+
+    private void writePending(ChannelHandlerContext ctx) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (null != lingerTask) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        if (messages.size() == 1) {
+            ctx.write(messages.get(0), promises.get(0));
+        } else {
+            //批量帧写出的结果通知到每条消息各自的promise
+            ChannelPromise[] batchPromises = promises.toArray(new ChannelPromise[0]);
+            ctx.write(new Batch(new ArrayList<>(messages))).addListener(new PromiseNotifier<>(batchPromises));
+        }
+        messages.clear();
+        promises.clear();
+    }
+}
@@ -1,15 +1,95 @@
 package com.ourjoy.netty.tutorial.netty.handler;
 
+import com.ourjoy.netty.tutorial.netty.auth.AuthenticationException;
+import com.ourjoy.netty.tutorial.netty.client.PendingRequests;
+import com.ourjoy.netty.tutorial.netty.client.ServerOverloadedException;
 import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.rpc.RpcException;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 自定义消息读取处理类
+ * 每个连接一个实例，根据响应Header中的requestId找到对应的在途请求并完成它
+ * 同时负责在连接重新变为可写时唤醒在awaitWritable中等待的发送线程
  */
+@Slf4j
 public class ClientHandler extends SimpleChannelInboundHandler<Protocol> {
+
+    private final PendingRequests pendingRequests = new PendingRequests();
+    //发送线程在连接不可写时在这个锁上等待
+    private final Object writabilityLock = new Object();
+
+    public PendingRequests getPendingRequests() {
+        return pendingRequests;
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Protocol protocol) throws Exception {
-        System.out.println(protocol);
+        if (protocol.hasFlag(Protocol.FLAG_UNAUTHORIZED)) {
+            //token被服务端拒绝，服务端随后会关闭连接，其余在途请求在channelInactive中失败
+            pendingRequests.fail(protocol.getHeader().getRequestId(), new AuthenticationException("token rejected by server"));
+            return;
+        }
+        if (protocol.hasFlag(Protocol.FLAG_OVERLOADED)) {
+            //服务端过载或者本连接超过限流，请求没有被处理，可以退避后重试
+            pendingRequests.fail(protocol.getHeader().getRequestId(), new ServerOverloadedException("request rejected by overloaded server"));
+            return;
+        }
+        if (protocol.hasFlag(Protocol.FLAG_ERROR)) {
+            //RPC调用在服务端失败，body是错误信息
+            pendingRequests.fail(protocol.getHeader().getRequestId(), new RpcException(String.valueOf(protocol.getBody())));
+            return;
+        }
+        if (!pendingRequests.complete(protocol)) {
+            log.warn("no pending request for response, maybe timed out: " + protocol);
+        }
+    }
+
+    /**
+     * 阻塞到连接可写、连接断开或者超时，不能在IO线程上调用，否则IO线程无法把缓冲区写出去，只能等到超时
+     * @return 返回时连接是否可写
+     */
+    public boolean awaitWritable(Channel channel, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (writabilityLock) {
+            //可写状态的检查和等待都在锁内，IO线程的通知也在锁内，不会漏掉通知
+            while (!channel.isWritable() && channel.isActive()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(writabilityLock, remaining);
+            }
+        }
+        return channel.isWritable();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            wakeUpWriters();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        //连接断开，在途请求不会再有响应了
+        pendingRequests.failAll(new ClosedChannelException());
+        //等待可写的线程也不用再等了
+        wakeUpWriters();
+        super.channelInactive(ctx);
+    }
+
+    private void wakeUpWriters() {
+        synchronized (writabilityLock) {
+            writabilityLock.notifyAll();
+        }
     }
-}
\ No newline at end of file
+}
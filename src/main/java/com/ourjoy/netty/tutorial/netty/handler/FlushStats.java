@@ -0,0 +1,73 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 刷新统计：真正刷到socket的次数，以及每次刷新带出去的消息条数分布
+ * 分桶按2的幂划分：[1] [2,3] [4,7] [8,15] [16,31] [32,63] [64,127] [128,+∞)，第0个桶统计没有消息的空刷新
+ * 可以被多个Channel共享，计数用LongAdder，不会在IO线程之间产生竞争
+ */
+public class FlushStats {
+
+    public static final int BUCKETS = 9;
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+    public FlushStats() {
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+    }
+
+    void record(int messageCount) {
+        flushes.increment();
+        messages.add(messageCount);
+        histogram[bucket(messageCount)].increment();
+    }
+
+    static int bucket(int messageCount) {
+        if (messageCount <= 0) {
+            return 0;
+        }
+        //1 -> 1, 2~3 -> 2, 4~7 -> 3 ...
+        return Math.min(BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(messageCount));
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    /**
+     * @return 平均每次刷新带出去的消息条数
+     */
+    public double getMessagesPerFlush() {
+        long f = flushes.sum();
+        return f == 0 ? 0 : (double) messages.sum() / f;
+    }
+
+    /**
+     * @return 各分桶的刷新次数，下标含义见类注释
+     */
+    public long[] getHistogram() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = histogram[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushStats{" +
+                "flushes=" + getFlushCount() +
+                ", messages=" + getMessageCount() +
+                ", messagesPerFlush=" + String.format("%.2f", getMessagesPerFlush()) +
+                '}';
+    }
+}
@@ -0,0 +1,35 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * 统计每次真正的flush带出去多少条消息，必须放在FlushConsolidationHandler靠近socket的一侧（即pipeline中它的前面），
+ * 这样看到的才是合并之后的flush
+ *
+ * 每个Channel一个实例，计数只在IO线程上访问，不需要同步
+ */
+public class FlushStatsHandler extends ChannelOutboundHandlerAdapter {
+
+    private final FlushStats stats;
+    //上次flush之后写入的消息条数
+    private int pendingWrites;
+
+    public FlushStatsHandler(FlushStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        pendingWrites++;
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        stats.record(pendingWrites);
+        pendingWrites = 0;
+        ctx.flush();
+    }
+}
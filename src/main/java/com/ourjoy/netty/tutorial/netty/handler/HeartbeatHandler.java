@@ -0,0 +1,197 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import com.ourjoy.netty.tutorial.netty.codec.HeaderDictionary;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.util.Timers;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 心跳和空闲连接回收，放在MyDecoder后面、业务处理器前面
+ *
+ * 1. 收到FLAG_PING的帧立即回一个FLAG_PONG，收到FLAG_PONG直接丢弃，心跳帧都不会交给业务处理器；带FLAG_DICT的心跳用于协商header字典，见HeaderDictionary
+ * 2. pingInterval内没有写出过任何数据时，主动发一个PING，对方回的PONG就是读到的数据
+ * 3. idleTimeout内没有读到过任何数据（包括PONG）时，认为对方已经不在了（半开连接、进程卡死），关闭连接
+ *
+ * 没有使用IdleStateHandler：它给每个连接在EventLoop上挂定时任务，EventLoop的定时任务队列是优先级队列，
+ * 连接数到十万级以后增删都是O(log n)；这里所有连接共用一个时间轮Timers.WHEEL，每个连接任何时刻只有一个待触发的Timeout，增删都是O(1)。
+ * 读写时只记录时间戳，不碰时间轮，Timeout到期时再根据时间戳判断是真的空闲了，还是重新挂一个到下次可能空闲的时间点
+ *
+ * 有状态，每个Channel一个实例
+ */
+@Slf4j
+public class HeartbeatHandler extends ChannelDuplexHandler implements TimerTask {
+
+    private final long pingIntervalNanos;
+    private final long idleTimeoutNanos;
+    //因空闲被关闭的连接数，可以为null
+    private final LongAdder idleClosed;
+
+    private volatile ChannelHandlerContext ctx;
+    //最近一次读、写的时间，只在IO线程上写，时间轮线程上读
+    private volatile long lastReadNanos;
+    private volatile long lastWriteNanos;
+    private volatile boolean stopped;
+    //当前挂在时间轮上的Timeout，连接关闭时取消，否则时间轮会一直引用这个处理器和整个pipeline，直到它到期（最长idleTimeout）
+    private volatile Timeout timeout;
+
+    /**
+     * @param pingIntervalMillis 多久没有写出数据时发送PING，0表示不主动发送
+     * @param idleTimeoutMillis 多久没有读到数据时关闭连接，0表示不检测
+     * @param idleClosed 因空闲被关闭的连接计数，可以为null
+     */
+    public HeartbeatHandler(long pingIntervalMillis, long idleTimeoutMillis, LongAdder idleClosed) {
+        this.pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pingIntervalMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.idleClosed = idleClosed;
+    }
+
+    /**
+     * 构建一个心跳帧，body为空
+     * @param flag Protocol.FLAG_PING或Protocol.FLAG_PONG
+     */
+    public static Protocol newHeartbeat(byte flag) {
+        Protocol protocol = new Protocol();
+        protocol.setMagicNum(0xABABABAB);
+        protocol.setFlags(flag);
+        protocol.setHeader(new Header());
+        return protocol;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isActive()) {
+            start(ctx);
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        start(ctx);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        stop();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        stop();
+    }
+
+    private void stop() {
+        stopped = true;
+        Timeout current = timeout;
+        if (null != current) {
+            current.cancel();
+        }
+    }
+
+    private void start(ChannelHandlerContext ctx) {
+        if (null != this.ctx || (pingIntervalNanos <= 0 && idleTimeoutNanos <= 0)) {
+            return;
+        }
+        this.ctx = ctx;
+        long now = System.nanoTime();
+        lastReadNanos = now;
+        lastWriteNanos = now;
+        schedule(now);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof Protocol) {
+            Protocol protocol = (Protocol) msg;
+            if (protocol.hasFlag(Protocol.FLAG_PING)) {
+                ReferenceCountUtil.release(msg);
+                lastWriteNanos = System.nanoTime();
+                Protocol pong = protocol.hasFlag(Protocol.FLAG_DICT) ? HeaderDictionary.accept(ctx.channel(), protocol) : null;
+                ctx.writeAndFlush(null == pong ? newHeartbeat(Protocol.FLAG_PONG) : pong);
+                return;
+            }
+            if (protocol.hasFlag(Protocol.FLAG_PONG)) {
+                ReferenceCountUtil.release(msg);
+                if (protocol.hasFlag(Protocol.FLAG_DICT)) {
+                    HeaderDictionary.accepted(ctx.channel(), protocol);
+                }
+                return;
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        //一次读循环记一次，不需要每条消息都取一次时间
+        lastReadNanos = System.nanoTime();
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        lastWriteNanos = System.nanoTime();
+        ctx.flush();
+    }
+
+    /**
+     * 时间轮线程上执行
+     */
+    @Override
+    public void run(Timeout timeout) {
+        if (stopped) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (idleTimeoutNanos > 0 && now - lastReadNanos >= idleTimeoutNanos) {
+            stopped = true;
+            //关闭放到IO线程上执行
+            ctx.executor().execute(this::closeIdle);
+            return;
+        }
+        if (pingIntervalNanos > 0 && now - lastWriteNanos >= pingIntervalNanos) {
+            lastWriteNanos = now;
+            ctx.executor().execute(() -> ctx.writeAndFlush(newHeartbeat(Protocol.FLAG_PING)));
+        }
+        schedule(now);
+    }
+
+    /**
+     * 按最近的读写时间，挂一个到下一次可能需要处理的时间点的Timeout
+     */
+    private void schedule(long now) {
+        long delay = Long.MAX_VALUE;
+        if (idleTimeoutNanos > 0) {
+            delay = lastReadNanos + idleTimeoutNanos - now;
+        }
+        if (pingIntervalNanos > 0) {
+            delay = Math.min(delay, lastWriteNanos + pingIntervalNanos - now);
+        }
+        Timeout next = Timers.WHEEL.newTimeout(this, Math.max(delay, TimeUnit.MILLISECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+        timeout = next;
+        //stop()可能在IO线程上和这里同时执行，取消的是上一个Timeout，这里再检查一次，保证新挂的也会被取消
+        if (stopped) {
+            next.cancel();
+        }
+    }
+
+    private void closeIdle() {
+        if (null != idleClosed) {
+            idleClosed.increment();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("no data received in " + TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) + "ms, close idle channel: " + ctx.channel());
+        }
+        ctx.close();
+    }
+}
@@ -0,0 +1,113 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 业务线程池的入口守卫，放在以业务线程池注册的ServerHandler前面，运行在IO线程上
+ *
+ * 通过pipeline.addLast(businessGroup, handler)注册的handler，Netty会把同一个Channel固定分配给业务线程池中的同一个线程，
+ * 所以同一个连接的消息仍然按顺序处理；业务线程的任务队列是有界的，队列满时execute直接抛出RejectedExecutionException，
+ * 这里捕获后丢弃该消息并计数，回一个带Protocol.FLAG_OVERLOADED的空响应，客户端不用等到超时，IO线程不会被拖慢，内存也不会无限增长
+ *
+ * 无状态，所有Channel共享一个实例
+ */
+@Slf4j
+@ChannelHandler.Sharable
+public class OffloadHandler extends ChannelInboundHandlerAdapter {
+
+    private final LongAdder rejected = new LongAdder();
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            ctx.fireChannelRead(msg);
+        } catch (RejectedExecutionException e) {
+            //业务线程队列已满，消息还没有交出去，由这里负责释放
+            Header header = msg instanceof Protocol ? ((Protocol) msg).getHeader() : null;
+            ReferenceCountUtil.release(msg);
+            rejected.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("business queue full, message dropped, channel: " + ctx.channel());
+            }
+            if (null != header) {
+                ctx.writeAndFlush(AdmissionHandler.newOverloaded(header.getRequestId()));
+            }
+        }
+    }
+
+    //以下事件同样要提交到业务线程，业务线程池关闭后或者队列满时也会抛出RejectedExecutionException
+    //它们只是通知，后面的业务处理器都是无状态的，丢掉即可，不能让异常抛回IO线程
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        fireGuarded(ctx::fireChannelReadComplete);
+    }
+
+    @Override
+    public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
+        fireGuarded(ctx::fireChannelRegistered);
+    }
+
+    @Override
+    public void channelUnregistered(ChannelHandlerContext ctx) throws Exception {
+        fireGuarded(ctx::fireChannelUnregistered);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        fireGuarded(ctx::fireChannelActive);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        fireGuarded(ctx::fireChannelInactive);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        fireGuarded(ctx::fireChannelWritabilityChanged);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        try {
+            ctx.fireUserEventTriggered(evt);
+        } catch (RejectedExecutionException e) {
+            //事件没有交出去，可能是引用计数对象，由这里负责释放
+            ReferenceCountUtil.release(evt);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        try {
+            ctx.fireExceptionCaught(cause);
+        } catch (RejectedExecutionException e) {
+            log.warn("business executor rejected exception event, channel: " + ctx.channel(), cause);
+        }
+    }
+
+    private static void fireGuarded(Runnable event) {
+        try {
+            event.run();
+        } catch (RejectedExecutionException e) {
+            //通知类事件，丢掉即可
+        }
+    }
+
+    /**
+     * @return 因业务队列已满而丢弃的消息数
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
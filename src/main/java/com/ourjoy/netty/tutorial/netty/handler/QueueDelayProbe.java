@@ -0,0 +1,146 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import com.ourjoy.netty.tutorial.netty.util.Timers;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 任务排队延迟探针，给AdmissionHandler判断是否过载
+ *
+ * 每隔interval往每个线程（IO线程、业务线程）的任务队列里提交一个空任务，从提交到开始执行的时间就是这个线程当前的排队延迟；
+ * 队列里积压的任务越多、IO线程的读循环越忙，延迟越大，它直接反映新请求要等多久才会被处理，比CPU使用率、队列长度都准确
+ * 上一个探测任务还没有执行时不再提交，查询时把它已经等待的时间也算上，线程完全卡住时也能立即发现；队列已满提交失败时认为延迟无穷大
+ *
+ * 定时由共享时间轮Timers.WHEEL驱动，线程安全，所有Channel共享一个实例
+ */
+public class QueueDelayProbe implements TimerTask {
+
+    /**
+     * 默认探测间隔，和时间轮一格的时间一致
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 10;
+
+    private final long maxDelayNanos;
+    private final long intervalNanos;
+    //构造完成后只读，不需要同步
+    private final Map<EventExecutor, Sample> samples = new IdentityHashMap<>();
+    private volatile boolean stopped;
+
+    /**
+     * @param maxDelayMillis 排队延迟的目标值，超过时认为过载
+     * @param intervalMillis 探测间隔
+     * @param groups 要探测的线程组，可以包含null
+     */
+    public QueueDelayProbe(long maxDelayMillis, long intervalMillis, EventExecutorGroup... groups) {
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        for (EventExecutorGroup group : groups) {
+            if (null == group) {
+                continue;
+            }
+            for (EventExecutor executor : group) {
+                samples.put(executor, new Sample(executor));
+            }
+        }
+    }
+
+    public void start() {
+        Timers.WHEEL.newTimeout(this, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * 时间轮线程上执行
+     */
+    @Override
+    public void run(Timeout timeout) {
+        if (stopped) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Sample sample : samples.values()) {
+            sample.probe(now);
+        }
+        Timers.WHEEL.newTimeout(this, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return executor当前的排队延迟，不是被探测的线程时返回0
+     */
+    public long getDelayNanos(EventExecutor executor) {
+        Sample sample = samples.get(executor);
+        return null == sample ? 0 : sample.delayNanos(System.nanoTime());
+    }
+
+    /**
+     * @return executor的排队延迟是否超过目标值
+     */
+    public boolean isOverloaded(EventExecutor executor) {
+        return getDelayNanos(executor) > maxDelayNanos;
+    }
+
+    /**
+     * @return 所有被探测线程中最大的排队延迟
+     */
+    public long getMaxDelayNanos() {
+        long now = System.nanoTime();
+        long max = 0;
+        for (Sample sample : samples.values()) {
+            max = Math.max(max, sample.delayNanos(now));
+        }
+        return max;
+    }
+
+    private static final class Sample implements Runnable {
+
+        private final EventExecutor executor;
+        //最近一次测到的延迟
+        private volatile long delayNanos;
+        //正在排队的探测任务的提交时间，先写它再写pending，读的时候先读pending
+        private volatile long submittedNanos;
+        private volatile boolean pending;
+
+        Sample(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        void probe(long now) {
+            if (pending || executor.isShuttingDown()) {
+                return;
+            }
+            submittedNanos = now;
+            pending = true;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                //任务队列已满，新请求进来也只会被丢弃
+                delayNanos = Long.MAX_VALUE;
+                pending = false;
+            }
+        }
+
+        /**
+         * 被探测的线程上执行
+         */
+        @Override
+        public void run() {
+            delayNanos = System.nanoTime() - submittedNanos;
+            pending = false;
+        }
+
+        long delayNanos(long now) {
+            long delay = delayNanos;
+            return pending ? Math.max(delay, now - submittedNanos) : delay;
+        }
+    }
+}
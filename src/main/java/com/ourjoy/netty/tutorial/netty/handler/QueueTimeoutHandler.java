@@ -0,0 +1,50 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 业务线程上的排队超时检查，以业务线程池注册，放在业务处理器前面
+ *
+ * QueueDelayProbe每隔一段时间才采样一次，两次采样之间涌进来的一批请求都会被AdmissionHandler放行，队列可能一下子超过目标延迟；
+ * 这里在业务线程取出请求、还没有处理时检查它实际排了多久，超过目标值的请求客户端多半已经等不及了，不再处理，直接回FLAG_OVERLOADED，
+ * 业务线程的时间只花在还来得及的请求上，和CoDel按出队时的排队时间丢包是一个思路
+ *
+ * 无状态，所有Channel共享一个实例
+ */
+@ChannelHandler.Sharable
+public class QueueTimeoutHandler extends ChannelInboundHandlerAdapter {
+
+    private final long maxDelayNanos;
+    //拒绝的请求计数，可以为null
+    private final LongAdder rejected;
+
+    public QueueTimeoutHandler(long maxDelayMillis, LongAdder rejected) {
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.rejected = rejected;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof Protocol) {
+            Protocol request = (Protocol) msg;
+            long admitted = request.getAdmittedNanos();
+            if (admitted != 0 && System.nanoTime() - admitted > maxDelayNanos) {
+                long requestId = request.getHeader().getRequestId();
+                ReferenceCountUtil.release(msg);
+                if (null != rejected) {
+                    rejected.increment();
+                }
+                ctx.writeAndFlush(AdmissionHandler.newOverloaded(requestId));
+                return;
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+}
@@ -1,28 +1,110 @@
 package com.ourjoy.netty.tutorial.netty.handler;
 
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
 import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
 import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.rpc.ServiceRegistry;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * 自定义消息读取处理类
+ * Header中serviceId不为0的是RPC调用，交给ServiceRegistry分发；其余的走原来的示例逻辑
+ *
+ * 无状态，所有Channel共享一个实例
  */
 @Slf4j
+@ChannelHandler.Sharable
 public class ServerHandler extends SimpleChannelInboundHandler<Protocol> {
 
+    //RPC服务注册表，为null时不支持RPC调用
+    private final ServiceRegistry serviceRegistry;
+
+    public ServerHandler() {
+        this(null);
+    }
+
+    public ServerHandler(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Protocol protocol) throws Exception {
-        log.info("receive msg: " + protocol);
+        //每条消息都打info日志会成为吞吐瓶颈，收发情况看Metrics
+        if (log.isDebugEnabled()) {
+            log.debug("receive msg: " + protocol);
+        }
+
+        if (null != protocol.getHeader() && protocol.getHeader().getServiceId() != 0) {
+            ctx.writeAndFlush(invoke(protocol));
+            return;
+        }
 
         //这里简单的将读取到的消息修改一下后，回写给客户端
+        try {
+            User user = (User) protocol.getBody();
+            user.setAge(32);
+        } catch (RuntimeException e) {
+            if (null == protocol.getHeader()) {
+                throw e;
+            }
+            //body不是User或者反序列化失败，也要回一个响应：否则客户端只能等到超时，AdmissionHandler中这个请求的在途名额也不会释放
+            log.warn("bad request: " + protocol.getHeader(), e);
+            ctx.writeAndFlush(newError(protocol, e));
+            return;
+        }
         protocol.getHeader().setToken("i'am response token");
-        User user = (User) protocol.getBody();
-        user.setAge(32);
 
-        //写入数据，并立即将消息刷出去
-        ctx.writeAndFlush(protocol);
+        //写入数据并刷出，pipeline中的FlushConsolidationHandler会把同一次读循环内的多次flush合并成一次系统调用
+        //protocol可能持有body的ByteBuf，SimpleChannelInboundHandler在本方法返回后会release一次，编码器写出后也会release一次，所以先retain
+        ctx.writeAndFlush(protocol.retain());
     }
 
+    /**
+     * 执行RPC调用，返回响应；调用失败时响应设置FLAG_ERROR，body是错误信息
+     */
+    private Protocol invoke(Protocol request) {
+        Header requestHeader = request.getHeader();
+        Header header = new Header();
+        header.setRequestId(requestHeader.getRequestId());
+        header.setServiceId(requestHeader.getServiceId());
+        header.setMethodId(requestHeader.getMethodId());
+
+        Protocol response = new Protocol();
+        response.setMagicNum(request.getMagicNum());
+        response.setHeader(header);
+        try {
+            if (null == serviceRegistry) {
+                throw new IllegalStateException("rpc not enabled");
+            }
+            Object result = serviceRegistry.invoke(requestHeader.getServiceId(), requestHeader.getMethodId(), (Object[]) request.getBody());
+            header.setBodyClass(null == result ? null : result.getClass());
+            response.setBody(result);
+        } catch (Throwable t) {
+            log.warn("rpc failed: " + requestHeader, t);
+            return newError(request, t);
+        }
+        return response;
+    }
+
+    /**
+     * 构建一个错误响应，设置FLAG_ERROR，body是错误信息
+     */
+    private static Protocol newError(Protocol request, Throwable t) {
+        Header requestHeader = request.getHeader();
+        Header header = new Header();
+        header.setRequestId(requestHeader.getRequestId());
+        header.setServiceId(requestHeader.getServiceId());
+        header.setMethodId(requestHeader.getMethodId());
+        header.setBodyClass(String.class);
+
+        Protocol response = new Protocol();
+        response.setMagicNum(request.getMagicNum());
+        response.setFlags(Protocol.FLAG_ERROR);
+        response.setHeader(header);
+        response.setBody(t.getClass().getName() + ": " + t.getMessage());
+        return response;
+    }
 }
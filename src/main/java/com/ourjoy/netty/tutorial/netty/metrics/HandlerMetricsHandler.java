@@ -0,0 +1,39 @@
+package com.ourjoy.netty.tutorial.netty.metrics;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * 统计业务处理耗时，按Header.bodyClass分别记录，紧挨着放在业务handler前面，并且和业务handler注册在同一个线程池上，
+ * fireChannelRead会直接调用到业务handler，返回时业务处理已经完成
+ *
+ * 无状态，所有Channel共享一个实例
+ */
+@ChannelHandler.Sharable
+public class HandlerMetricsHandler extends ChannelInboundHandlerAdapter {
+
+    private final Metrics metrics;
+
+    public HandlerMetricsHandler(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof Protocol)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        //业务handler可能修改header，先取出来
+        Protocol protocol = (Protocol) msg;
+        Class<?> bodyClass = null == protocol.getHeader() ? null : protocol.getHeader().getBodyClass();
+        long start = System.nanoTime();
+        try {
+            ctx.fireChannelRead(msg);
+        } finally {
+            metrics.recordHandler(bodyClass, System.nanoTime() - start);
+        }
+    }
+}
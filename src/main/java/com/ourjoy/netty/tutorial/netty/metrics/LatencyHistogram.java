@@ -0,0 +1,78 @@
+package com.ourjoy.netty.tutorial.netty.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图，按微秒分桶，桶的边界是2的幂：[0] [1] [2,3] [4,7] ... 最后一个桶是[2^22,+∞)，即4秒以上
+ * 每个桶是一个LongAdder，多个IO线程同时记录时不会竞争同一个缓存行，记录过程不分配对象
+ * 分位数只能精确到所在桶的上界，最多高估一倍，用来观察数量级和趋势足够了
+ */
+public class LatencyHistogram {
+
+    public static final int BUCKETS = 24;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void recordNanos(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        buckets[bucket(micros)].increment();
+        count.increment();
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    static int bucket(long micros) {
+        //0 -> 0, 1 -> 1, 2~3 -> 2, 4~7 -> 3 ...
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    public double getMeanMicros() {
+        long c = count.sum();
+        return c == 0 ? 0 : (double) sumMicros.sum() / c;
+    }
+
+    /**
+     * @param percentile 0~100
+     * @return 该分位所在桶的上界（不超过最大值），单位微秒，没有数据时返回0
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min((1L << i) - 1, maxMicros.get());
+            }
+        }
+        //落在最后一个桶，上界未知，用最大值代替
+        return maxMicros.get();
+    }
+}
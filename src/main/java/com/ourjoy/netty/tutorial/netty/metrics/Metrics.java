@@ -0,0 +1,211 @@
+package com.ourjoy.netty.tutorial.netty.metrics;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 一个服务端实例的全部指标，由TrafficMetricsHandler、HandlerMetricsHandler和编解码器记录
+ * 计数全部用LongAdder，IO线程之间不竞争；记录路径上不分配对象（按body类型的直方图只在第一次出现该类型时创建）
+ * 待发送字节数只在读取指标时遍历所有连接计算，不占用IO线程
+ */
+public class Metrics implements MetricsMXBean {
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder framesDecoded = new LongAdder();
+    private final LongAdder framesEncoded = new LongAdder();
+    private final LatencyHistogram decodeTime = new LatencyHistogram();
+    private final LatencyHistogram encodeTime = new LatencyHistogram();
+    //业务处理耗时，按Header.bodyClass分别统计，key为null的消息记在Void.class下
+    private final ConcurrentMap<Class<?>, LatencyHistogram> handlerTime = new ConcurrentHashMap<>();
+    //所有活跃连接，连接关闭后自动移除
+    private final ChannelGroup channels = new DefaultChannelGroup("metrics", GlobalEventExecutor.INSTANCE);
+
+    private ObjectName objectName;
+
+    void recordBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void recordBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    void channelActive(Channel channel) {
+        channels.add(channel);
+    }
+
+    public void recordDecode(long nanos) {
+        framesDecoded.increment();
+        decodeTime.recordNanos(nanos);
+    }
+
+    public void recordEncode(long nanos) {
+        framesEncoded.increment();
+        encodeTime.recordNanos(nanos);
+    }
+
+    void recordHandler(Class<?> bodyClass, long nanos) {
+        Class<?> key = null == bodyClass ? Void.class : bodyClass;
+        LatencyHistogram histogram = handlerTime.get(key);
+        if (null == histogram) {
+            histogram = handlerTime.computeIfAbsent(key, k -> new LatencyHistogram());
+        }
+        histogram.recordNanos(nanos);
+    }
+
+    /**
+     * 注册到平台MBeanServer，ObjectName为com.ourjoy.netty.tutorial:type=Metrics,name={name}
+     */
+    public void registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        objectName = new ObjectName("com.ourjoy.netty.tutorial:type=Metrics,name=" + ObjectName.quote(name));
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(this, objectName);
+    }
+
+    public void unregisterMBean() {
+        if (null == objectName) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            //已经被注销，忽略
+        }
+        objectName = null;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getFramesDecoded() {
+        return framesDecoded.sum();
+    }
+
+    @Override
+    public long getFramesEncoded() {
+        return framesEncoded.sum();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return channels.size();
+    }
+
+    @Override
+    public long getPendingOutboundBytes() {
+        long pending = 0;
+        for (Channel channel : channels) {
+            //连接关闭后outboundBuffer为null
+            ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+            if (null != buffer) {
+                pending += buffer.totalPendingWriteBytes();
+            }
+        }
+        return pending;
+    }
+
+    @Override
+    public long getDecodeP50Micros() {
+        return decodeTime.getPercentileMicros(50);
+    }
+
+    @Override
+    public long getDecodeP99Micros() {
+        return decodeTime.getPercentileMicros(99);
+    }
+
+    @Override
+    public long getEncodeP50Micros() {
+        return encodeTime.getPercentileMicros(50);
+    }
+
+    @Override
+    public long getEncodeP99Micros() {
+        return encodeTime.getPercentileMicros(99);
+    }
+
+    @Override
+    public Map<String, Long> getHandlerP99Micros() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<Class<?>, LatencyHistogram> entry : handlerTime.entrySet()) {
+            result.put(entry.getKey().getName(), entry.getValue().getPercentileMicros(99));
+        }
+        return result;
+    }
+
+    public LatencyHistogram getDecodeTime() {
+        return decodeTime;
+    }
+
+    public LatencyHistogram getEncodeTime() {
+        return encodeTime;
+    }
+
+    /**
+     * 以Prometheus文本格式输出全部指标
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder(1024);
+        counter(sb, "netty_bytes_in_total", getBytesIn());
+        counter(sb, "netty_bytes_out_total", getBytesOut());
+        counter(sb, "netty_frames_decoded_total", getFramesDecoded());
+        counter(sb, "netty_frames_encoded_total", getFramesEncoded());
+        gauge(sb, "netty_active_connections", getActiveConnections());
+        gauge(sb, "netty_pending_outbound_bytes", getPendingOutboundBytes());
+        summary(sb, "netty_decode_micros", "", decodeTime);
+        summary(sb, "netty_encode_micros", "", encodeTime);
+        sb.append("# TYPE netty_handler_micros summary\n");
+        for (Map.Entry<Class<?>, LatencyHistogram> entry : handlerTime.entrySet()) {
+            summaryValues(sb, "netty_handler_micros", "body=\"" + entry.getKey().getName() + "\",", entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, long value) {
+        sb.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, long value) {
+        sb.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, LatencyHistogram h) {
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        summaryValues(sb, name, labels, h);
+    }
+
+    private static void summaryValues(StringBuilder sb, String name, String labels, LatencyHistogram h) {
+        for (String q : new String[]{"0.5", "0.99", "0.999"}) {
+            sb.append(name).append("{").append(labels).append("quantile=\"").append(q).append("\"} ")
+                    .append(h.getPercentileMicros(Double.parseDouble(q) * 100)).append('\n');
+        }
+        String suffix = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        sb.append(name).append("_max").append(suffix).append(' ').append(h.getMaxMicros()).append('\n');
+        sb.append(name).append("_count").append(suffix).append(' ').append(h.getCount()).append('\n');
+    }
+}
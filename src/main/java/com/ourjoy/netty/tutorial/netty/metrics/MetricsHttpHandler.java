@@ -0,0 +1,46 @@
+package com.ourjoy.netty.tutorial.netty.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.*;
+
+/**
+ * 以文本格式输出指标的HTTP接口，GET /metrics，配合HttpServerCodec、HttpObjectAggregator使用
+ * 例如 curl http://127.0.0.1:9888/metrics ，Prometheus也可以直接抓取
+ *
+ * 无状态，所有Channel共享一个实例
+ */
+@ChannelHandler.Sharable
+public class MetricsHttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+    private final Metrics metrics;
+
+    public MetricsHttpHandler(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+        FullHttpResponse response;
+        if (request.method() == HttpMethod.GET && "/metrics".equals(request.uri())) {
+            ByteBuf content = ByteBufUtil.writeUtf8(ctx.alloc(), metrics.toText());
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+        } else {
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+        }
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        if (keepAlive) {
+            HttpUtil.setKeepAlive(response, true);
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.ourjoy.netty.tutorial.netty.metrics;
+
+import java.util.Map;
+
+/**
+ * 通过JMX发布的指标，jconsole/VisualVM中在com.ourjoy.netty.tutorial域下查看
+ * 耗时单位都是微秒
+ */
+public interface MetricsMXBean {
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getFramesDecoded();
+
+    long getFramesEncoded();
+
+    long getActiveConnections();
+
+    long getPendingOutboundBytes();
+
+    long getDecodeP50Micros();
+
+    long getDecodeP99Micros();
+
+    long getEncodeP50Micros();
+
+    long getEncodeP99Micros();
+
+    /**
+     * @return key为body类型的类名
+     */
+    Map<String, Long> getHandlerP99Micros();
+}
@@ -0,0 +1,44 @@
+package com.ourjoy.netty.tutorial.netty.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * 统计收发字节数和活跃连接，必须放在pipeline的最前面（最靠近socket），这样看到的才是原始的ByteBuf
+ *
+ * 无状态，所有Channel共享一个实例
+ */
+@ChannelHandler.Sharable
+public class TrafficMetricsHandler extends ChannelDuplexHandler {
+
+    private final Metrics metrics;
+
+    public TrafficMetricsHandler(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        metrics.channelActive(ctx.channel());
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            metrics.recordBytesIn(((ByteBuf) msg).readableBytes());
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            metrics.recordBytesOut(((ByteBuf) msg).readableBytes());
+        }
+        ctx.write(msg, promise);
+    }
+}
@@ -0,0 +1,49 @@
+package com.ourjoy.netty.tutorial.netty.protocol;
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.List;
+
+/**
+ * 一组Protocol，由MyEncoder编码为批量帧，高频小消息省掉每条消息各自的帧开销和各自的一次解码
+ *
+ * 批量帧：LEN(2) MAGIC(4) FLAGS(1，带Protocol.FLAG_BATCH) HDR LEN(2，固定为0) 子消息...
+ * 子消息：SUB LEN(2，不含自身) FLAGS(1) HDR LEN(2) header body，即去掉了MAGIC的普通帧，每条比单独成帧少4个字节
+ * 子消息的FLAGS和header编码规则同普通帧（比如FLAG_DICT），一个批量帧超过MAX_FRAME_LENGTH时MyEncoder会把剩下的子消息放到下一个批量帧
+ *
+ * 持有的Protocol归本对象所有，本对象被release时一并release
+ */
+public class Batch extends AbstractReferenceCounted {
+
+    private final List<Protocol> messages;
+
+    public Batch(List<Protocol> messages) {
+        this.messages = messages;
+    }
+
+    public List<Protocol> getMessages() {
+        return messages;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    @Override
+    protected void deallocate() {
+        for (Protocol message : messages) {
+            ReferenceCountUtil.release(message);
+        }
+    }
+
+    @Override
+    public Batch touch(Object hint) {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "Batch{size=" + messages.size() + '}';
+    }
+}
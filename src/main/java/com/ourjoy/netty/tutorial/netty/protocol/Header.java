@@ -3,22 +3,37 @@ package com.ourjoy.netty.tutorial.netty.protocol;
 import java.io.Serializable;
 
 /**
- * 消息头对象，这里只是举例了两个属性，真是场景可能需要以下字段：
+ * 消息头对象，这里只是举例了几个属性，真是场景可能需要以下字段：
  * user: 请求者的用户名
  * token：请求者的token, 验证合法性
  * interface：表示请求的是什么业务接口
  * version: 接口版本
+ * 接口和版本由serviceId表示，方法由methodId表示，都是ServiceDescriptor中分配的小整数，服务端按下标直接找到调用入口，见ServiceRegistry
  */
 public class Header implements Serializable {
 
     private static final long serialVersionUID = 4190503285833908646L;
+    //请求id，由客户端按连接生成，服务端响应时原样带回，客户端据此把响应和请求对应起来，一个连接上就可以同时有多个请求在途
+    private long requestId;
     private String token;
-    //有些反序列化组件，需要知道反序列化的目标Class，可以通过这里告知
+    //有些反序列化组件，需要知道反序列化的目标Class，可以通过这里告知，CompactSerializer只会传输它在TypeRegistry中的id
     private Class bodyClass;
+    //RPC调用的服务id，即接口+版本，0表示不是RPC调用
+    private int serviceId;
+    //RPC调用的方法id，见ServiceDescriptor
+    private int methodId;
 
     public Header() {
     }
 
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
     public String getToken() {
         return token;
     }
@@ -35,11 +50,30 @@ public class Header implements Serializable {
         this.bodyClass = bodyClass;
     }
 
+    public int getServiceId() {
+        return serviceId;
+    }
+
+    public void setServiceId(int serviceId) {
+        this.serviceId = serviceId;
+    }
+
+    public int getMethodId() {
+        return methodId;
+    }
+
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
+    }
+
     @Override
     public String toString() {
         return "Header{" +
-                "token='" + token + '\'' +
+                "requestId=" + requestId +
+                ", token='" + token + '\'' +
                 ", bodyClass=" + bodyClass +
+                ", serviceId=" + serviceId +
+                ", methodId=" + methodId +
                 '}';
     }
 }
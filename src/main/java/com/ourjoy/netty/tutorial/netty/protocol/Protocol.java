@@ -1,12 +1,64 @@
 package com.ourjoy.netty.tutorial.netty.protocol;
 
+import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
+
 import java.io.Serializable;
 
-public class Protocol implements Serializable {
+/**
+ * 协议对象
+ *
+ * body有两种形态：
+ * 1. 对象形态：setBody设置的，或者已经反序列化过的body对象
+ * 2. 字节形态：MyDecoder开启lazyBody时，body以帧中那一段字节的retainedSlice保存，第一次调用getBody时才反序列化，
+ *    只看Header就能完成路由、转发、拒绝的处理器不会触发反序列化；从没有调用过getBody的Protocol被写出时，MyEncoder直接把这段字节原样写出
+ *
+ * 持有字节形态的body时Protocol是引用计数对象，引用计数委托给body的ByteBuf，用完必须release（SimpleChannelInboundHandler会自动release），
+ * 写出时编码器也会release一次，所以在处理器中把收到的Protocol原样写出时要先retain；没有字节形态的body时引用计数相关的方法都是空操作
+ */
+public class Protocol implements Serializable, ReferenceCounted {
 
     private static final long serialVersionUID = 1658637343288015366L;
+
+    /**
+     * 标志位：body经过压缩，解码时需要先解压，由CompressionEncoder设置，MyDecoder解压后清除
+     */
+    public static final byte FLAG_COMPRESSED = 0x01;
+    /**
+     * 标志位：响应专用，请求的token没有通过验证，body为空，由AuthHandler设置
+     */
+    public static final byte FLAG_UNAUTHORIZED = 0x02;
+    /**
+     * 标志位：响应专用，RPC调用失败，body为错误信息字符串，由ServerHandler设置
+     */
+    public static final byte FLAG_ERROR = 0x04;
+    /**
+     * 标志位：心跳请求，body为空，收到的一方立即回FLAG_PONG，见HeartbeatHandler
+     */
+    public static final byte FLAG_PING = 0x08;
+    /**
+     * 标志位：心跳响应，body为空
+     */
+    public static final byte FLAG_PONG = 0x10;
+    /**
+     * 标志位：header用连接的动态表编码；出现在心跳帧上时表示协商开启动态表，见HeaderDictionary
+     */
+    public static final byte FLAG_DICT = 0x20;
+    /**
+     * 标志位：批量帧，header为空，body是多条子消息，见Batch
+     */
+    public static final byte FLAG_BATCH = 0x40;
+    /**
+     * 标志位：响应专用，服务端过载或者连接超过限流，请求没有被处理，body为空，由AdmissionHandler、QueueTimeoutHandler、OffloadHandler设置，客户端可以稍后重试
+     */
+    public static final byte FLAG_OVERLOADED = (byte) 0x80;
+
     //魔数
     private Integer magicNum;
+    //标志位
+    private byte flags;
     //消息总长度
     private Short length;
     //header长度
@@ -15,6 +67,14 @@ public class Protocol implements Serializable {
     private Header header;
     //Body对象
     private Object body;
+    //字节形态的body，为null表示body只有对象形态
+    private transient ByteBuf rawBody;
+    //反序列化rawBody用的序列化组件
+    private transient Serializer bodySerializer;
+    //body对象是否已经就绪（已反序列化或者被setBody覆盖），就绪后以对象形态为准
+    private transient boolean bodyReady = true;
+    //请求通过准入检查的时间(System.nanoTime)，0表示没有记录，用于计算请求在业务线程队列里等了多久，见QueueTimeoutHandler
+    private transient long admittedNanos;
 
     public Protocol() {
     }
@@ -27,6 +87,18 @@ public class Protocol implements Serializable {
         this.magicNum = magicNum;
     }
 
+    public byte getFlags() {
+        return flags;
+    }
+
+    public void setFlags(byte flags) {
+        this.flags = flags;
+    }
+
+    public boolean hasFlag(byte flag) {
+        return (flags & flag) != 0;
+    }
+
     public Short getLength() {
         return length;
     }
@@ -51,22 +123,122 @@ public class Protocol implements Serializable {
         this.header = header;
     }
 
+    /**
+     * 字节形态的body在第一次调用时反序列化，压缩过的先解压，之后FLAG_COMPRESSED被清除
+     */
     public Object getBody() {
+        if (!bodyReady) {
+            body = MyDecoder.decodeBody(rawBody.duplicate(), bodySerializer, hasFlag(FLAG_COMPRESSED));
+            flags &= ~FLAG_COMPRESSED;
+            bodyReady = true;
+        }
         return body;
     }
 
+    /**
+     * 覆盖body，之后写出时以对象形态为准，字节形态的body（如果有）在release时释放
+     */
     public void setBody(Object body) {
         this.body = body;
+        if (!bodyReady) {
+            flags &= ~FLAG_COMPRESSED;
+            bodyReady = true;
+        }
+    }
+
+    /**
+     * 设置字节形态的body，所有权转移给本对象
+     * @param rawBody 序列化后的body，FLAG_COMPRESSED时是压缩后的
+     * @param serializer 反序列化用的序列化组件
+     */
+    public void setRawBody(ByteBuf rawBody, Serializer serializer) {
+        if (null != this.rawBody) {
+            this.rawBody.release();
+        }
+        this.rawBody = rawBody;
+        this.bodySerializer = serializer;
+        this.body = null;
+        this.bodyReady = false;
+    }
+
+    /**
+     * @return body是否还没有被反序列化过，为true时getRawBody可以原样转发
+     */
+    public boolean hasRawBody() {
+        return !bodyReady;
+    }
+
+    /**
+     * @return 字节形态的body，只读，不改变引用计数；hasRawBody为false时返回null
+     */
+    public ByteBuf getRawBody() {
+        return bodyReady ? null : rawBody;
+    }
+
+    public long getAdmittedNanos() {
+        return admittedNanos;
+    }
+
+    public void setAdmittedNanos(long admittedNanos) {
+        this.admittedNanos = admittedNanos;
+    }
+
+    @Override
+    public int refCnt() {
+        return null == rawBody ? 1 : rawBody.refCnt();
+    }
+
+    @Override
+    public Protocol retain() {
+        if (null != rawBody) {
+            rawBody.retain();
+        }
+        return this;
+    }
+
+    @Override
+    public Protocol retain(int increment) {
+        if (null != rawBody) {
+            rawBody.retain(increment);
+        }
+        return this;
+    }
+
+    @Override
+    public Protocol touch() {
+        if (null != rawBody) {
+            rawBody.touch();
+        }
+        return this;
+    }
+
+    @Override
+    public Protocol touch(Object hint) {
+        if (null != rawBody) {
+            rawBody.touch(hint);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return null != rawBody && rawBody.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return null != rawBody && rawBody.release(decrement);
     }
 
     @Override
     public String toString() {
         return "Protocol{" +
                 "magicNum=" + magicNum +
+                ", flags=" + flags +
                 ", length=" + length +
                 ", headerLength=" + headerLength +
                 ", header=" + header +
-                ", body=" + body +
+                ", body=" + (bodyReady ? body : rawBody.readableBytes() + " raw bytes") +
                 '}';
     }
 }
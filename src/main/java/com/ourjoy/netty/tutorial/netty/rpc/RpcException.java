@@ -0,0 +1,17 @@
+package com.ourjoy.netty.tutorial.netty.rpc;
+
+/**
+ * RPC调用失败：服务或方法不存在、服务实现抛出了异常等，服务端把错误信息带回客户端，客户端以此抛出
+ */
+public class RpcException extends RuntimeException {
+
+    private static final long serialVersionUID = 6141899282130050574L;
+
+    public RpcException(String message) {
+        super(message);
+    }
+
+    public RpcException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,67 @@
+package com.ourjoy.netty.tutorial.netty.rpc;
+
+import com.ourjoy.netty.tutorial.netty.NettyClient;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 客户端的服务代理，调用接口方法时把服务id、方法id放进Header，参数数组作为body发给服务端，阻塞等待返回值
+ * 服务端抛出的异常以RpcException抛出，超时抛出RpcException(cause为TimeoutException)
+ */
+public final class RpcProxy {
+
+    private RpcProxy() {
+    }
+
+    /**
+     * @param token 放进每个请求Header的token，服务端没有开启认证时可以为null
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T create(NettyClient client, ServiceDescriptor<T> descriptor, String token, long timeoutMillis) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return invokeObjectMethod(proxy, method, args, descriptor);
+            }
+            Header header = new Header();
+            header.setToken(token);
+            header.setServiceId(descriptor.getId());
+            header.setMethodId(descriptor.methodId(method));
+            header.setBodyClass(Object[].class);
+
+            Protocol request = new Protocol();
+            request.setMagicNum(0xABABABAB);
+            request.setHeader(header);
+            request.setBody(null == args ? new Object[0] : args);
+            try {
+                return client.send(request, timeoutMillis).get(timeoutMillis, TimeUnit.MILLISECONDS).getBody();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RpcException) {
+                    throw cause;
+                }
+                throw new RpcException("rpc call failed: " + descriptor + "." + method.getName(), cause);
+            } catch (TimeoutException e) {
+                throw new RpcException("rpc call timed out: " + descriptor + "." + method.getName(), e);
+            }
+        };
+        return (T) Proxy.newProxyInstance(descriptor.getType().getClassLoader(), new Class<?>[]{descriptor.getType()}, handler);
+    }
+
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args, ServiceDescriptor<?> descriptor) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "RpcProxy(" + descriptor + ")";
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ourjoy.netty.tutorial.netty.rpc;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 服务描述：接口 + 版本对应一个服务id，接口中的每个方法对应一个方法id
+ * 服务id由使用者分配，和TypeRegistry中的类型id一样，通信双方必须一致；
+ * 方法id是方法按"方法名(参数类型...)"排序后的下标，只要两端的接口定义相同，算出来的方法id就相同
+ * 请求中只传这两个小整数，服务端按下标直接找到调用入口，不需要字符串比较或哈希查找
+ */
+public final class ServiceDescriptor<T> {
+
+    private final int id;
+    private final Class<T> type;
+    private final String version;
+    private final Method[] methods;
+    private final Map<Method, Integer> methodIds = new HashMap<>();
+
+    private ServiceDescriptor(int id, Class<T> type, String version) {
+        if (!type.isInterface()) {
+            throw new IllegalArgumentException("service type must be an interface: " + type.getName());
+        }
+        if (id <= 0) {
+            throw new IllegalArgumentException("service id must be positive: " + id);
+        }
+        this.id = id;
+        this.type = type;
+        this.version = version;
+        this.methods = type.getMethods();
+        Arrays.sort(methods, Comparator.comparing(ServiceDescriptor::signature));
+        for (int i = 0; i < methods.length; i++) {
+            methodIds.put(methods[i], i);
+        }
+    }
+
+    public static <T> ServiceDescriptor<T> of(int id, Class<T> type, String version) {
+        return new ServiceDescriptor<>(id, type, version);
+    }
+
+    private static String signature(Method method) {
+        StringBuilder sb = new StringBuilder(method.getName()).append('(');
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            sb.append(parameterType.getName()).append(',');
+        }
+        return sb.append(')').toString();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return 按方法id排列的接口方法，返回的是内部数组，不要修改
+     */
+    Method[] methods() {
+        return methods;
+    }
+
+    /**
+     * @return 方法id，不是本接口的方法时返回-1
+     */
+    public int methodId(Method method) {
+        Integer methodId = methodIds.get(method);
+        return null == methodId ? -1 : methodId;
+    }
+
+    @Override
+    public String toString() {
+        return type.getName() + ":" + version + "#" + id;
+    }
+}
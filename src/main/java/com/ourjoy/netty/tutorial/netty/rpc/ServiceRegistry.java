@@ -0,0 +1,91 @@
+package com.ourjoy.netty.tutorial.netty.rpc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * 服务注册表，服务端用它把请求分发到服务实现
+ *
+ * 按服务id下标存放在数组中，每个服务再按方法id下标存放调用入口，一次分发就是两次数组下标访问，和注册了多少服务无关
+ * 调用入口是注册时预先生成好的MethodHandle：绑定服务实现、把参数数组展开、统一成(Object[])Object的签名，
+ * 调用时invokeExact直接走JIT内联，没有Method.invoke每次的访问检查和参数包装开销
+ *
+ * 注册应该在服务启动时完成，运行期只读；注册时整体替换数组，读的一方不需要加锁
+ */
+public class ServiceRegistry {
+
+    //统一的调用签名：参数数组进，返回值出，基本类型自动装箱，void方法返回null
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    //按服务id下标存放，没有注册的位置为null
+    private volatile Service[] services = new Service[16];
+
+    /**
+     * 注册一个服务实现，同一个服务id只能注册一次
+     */
+    public synchronized <T> void register(ServiceDescriptor<T> descriptor, T implementation) {
+        int id = descriptor.getId();
+        if (id < services.length && null != services[id]) {
+            throw new IllegalStateException("service id already registered: " + services[id].descriptor);
+        }
+
+        Method[] methods = descriptor.methods();
+        MethodHandle[] invokers = new MethodHandle[methods.length];
+        int[] argCounts = new int[methods.length];
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (int i = 0; i < methods.length; i++) {
+            argCounts[i] = methods[i].getParameterCount();
+            try {
+                invokers[i] = lookup.unreflect(methods[i])
+                        .bindTo(implementation)
+                        .asSpreader(Object[].class, argCounts[i])
+                        .asType(INVOKER_TYPE);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("service interface must be public: " + descriptor, e);
+            }
+        }
+
+        Service[] newServices = Arrays.copyOf(services, Math.max(services.length, Integer.highestOneBit(id) << 1));
+        newServices[id] = new Service(descriptor, invokers, argCounts);
+        services = newServices;
+    }
+
+    /**
+     * 调用服务
+     * @param args 参数列表，没有参数时可以为null
+     * @throws RpcException 服务或方法不存在，参数个数不匹配
+     * @throws Throwable 服务实现抛出的异常原样抛出
+     */
+    public Object invoke(int serviceId, int methodId, Object[] args) throws Throwable {
+        Service[] current = services;
+        Service service = serviceId > 0 && serviceId < current.length ? current[serviceId] : null;
+        if (null == service) {
+            throw new RpcException("service not found: " + serviceId);
+        }
+        if (methodId < 0 || methodId >= service.invokers.length) {
+            throw new RpcException("method not found: " + service.descriptor + "#" + methodId);
+        }
+        //参数个数和方法签名不一致，可能是两端接口版本不同；先检查，避免和服务实现自己抛出的IllegalArgumentException混在一起
+        int argCount = null == args ? 0 : args.length;
+        if (argCount != service.argCounts[methodId]) {
+            throw new RpcException("bad argument count for " + service.descriptor + "#" + methodId + ": " + argCount);
+        }
+        return (Object) service.invokers[methodId].invokeExact(args);
+    }
+
+    private static final class Service {
+        private final ServiceDescriptor<?> descriptor;
+        //按方法id下标存放的调用入口和参数个数
+        private final MethodHandle[] invokers;
+        private final int[] argCounts;
+
+        private Service(ServiceDescriptor<?> descriptor, MethodHandle[] invokers, int[] argCounts) {
+            this.descriptor = descriptor;
+            this.invokers = invokers;
+            this.argCounts = argCounts;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 紧凑格式用到的基础读写方法
+ * 整数采用varint编码（每个字节低7位存数据，最高位表示后面是否还有字节），小数值只占1个字节
+ * 可空的值统一用0表示null，非null的值整体+1后再写出
+ */
+public final class CodecUtil {
+
+    private CodecUtil() {
+    }
+
+    public static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new SerializationException("malformed varint");
+    }
+
+    /**
+     * 读一个varint的长度，用于按长度分配数组之前的检查：长度来自对方，不检查的话几个字节就能要求分配上GB的数组
+     * @return 长度，保证不小于0，也不超过剩余的可读字节数（每个元素至少占1个字节）
+     */
+    public static int readLength(ByteBuf in) {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.readableBytes()) {
+            throw new SerializationException("invalid length " + length + ", readable bytes: " + in.readableBytes());
+        }
+        return length;
+    }
+
+    public static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new SerializationException("malformed varlong");
+    }
+
+    /**
+     * 写可空字符串：varint(UTF-8字节数+1) + UTF-8字节，null只写一个0
+     */
+    public static void writeString(ByteBuf out, String value) {
+        if (null == value) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, ByteBufUtil.utf8Bytes(value) + 1);
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    public static String readString(ByteBuf in) {
+        int len = readVarInt(in) - 1;
+        if (len < 0) {
+            return null;
+        }
+        //readCharSequence直接从ByteBuf解码，堆内、堆外、Composite都不需要先拷贝出byte[]
+        return in.readCharSequence(len, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * 写可空Integer：zigzag编码后+1，null写0，负数也只占很少的字节
+     */
+    public static void writeNullableInt(ByteBuf out, Integer value) {
+        if (null == value) {
+            writeVarLong(out, 0);
+            return;
+        }
+        int v = value;
+        writeVarLong(out, (((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL) + 1);
+    }
+
+    public static Integer readNullableInt(ByteBuf in) {
+        long raw = readVarLong(in);
+        if (raw == 0) {
+            return null;
+        }
+        int zigzag = (int) (raw - 1);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    public static void writeNullableLong(ByteBuf out, Long value) {
+        if (null == value) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        long v = value;
+        writeVarLong(out, (v << 1) ^ (v >> 63));
+    }
+
+    public static Long readNullableLong(ByteBuf in) {
+        if (in.readByte() == 0) {
+            return null;
+        }
+        long zigzag = readVarLong(in);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
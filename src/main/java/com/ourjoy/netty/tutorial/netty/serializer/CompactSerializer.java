@@ -0,0 +1,45 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 紧凑二进制序列化，格式：varint(类型id) + 字段值
+ * 不写类描述信息，不创建任何Stream对象，直接在ByteBuf上读写
+ * 只支持在TypeRegistry中注册过的类型，其他类型请使用JdkSerializer
+ */
+public class CompactSerializer implements Serializer {
+
+    public static final CompactSerializer INSTANCE = new CompactSerializer();
+
+    @Override
+    public String name() {
+        return "compact";
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        if (null == obj) {
+            CodecUtil.writeVarInt(out, 0);
+            return;
+        }
+        TypeRegistry.Entry entry = TypeRegistry.lookup(obj.getClass());
+        if (null == entry) {
+            throw new SerializationException("type not registered in TypeRegistry: " + obj.getClass().getName());
+        }
+        CodecUtil.writeVarInt(out, entry.getId());
+        entry.getCodec().write(obj, out);
+    }
+
+    @Override
+    public Object deserialize(ByteBuf in) {
+        int id = CodecUtil.readVarInt(in);
+        if (id == 0) {
+            return null;
+        }
+        TypeRegistry.Entry entry = TypeRegistry.lookup(id);
+        if (null == entry) {
+            throw new SerializationException("unknown type id: " + id);
+        }
+        return entry.getCodec().read(in);
+    }
+}
@@ -0,0 +1,153 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Header的紧凑编解码
+ * bodyClass不再序列化整个java.lang.Class，而是写它在TypeRegistry中的id
+ * 格式：requestId | token | bodyClass | serviceId | methodId
+ * requestId: varlong，小的id只占1~3个字节
+ * bodyClass: varint(类型id)，未注册的类型写0，后面再跟一个可空的类名字符串
+ * serviceId、methodId: varint，不是RPC调用时都是0，各占1个字节
+ *
+ * 连接协商开启header动态表后（见HeaderDictionary），帧带Protocol.FLAG_DICT，header改用writeIndexed/readIndexed编码：
+ * requestId: 和上一帧requestId的差值，zigzag后写varlong，连续请求通常只占1个字节
+ * token、未注册类型的类名: 动态表中已有的只写下标，见writeRef
+ * 其余字段不变，前面也不再写Header的类型id
+ */
+public class HeaderCodec implements TypeCodec<Header> {
+
+    @Override
+    public void write(Header header, ByteBuf out) {
+        CodecUtil.writeVarLong(out, header.getRequestId());
+        CodecUtil.writeString(out, header.getToken());
+        writeClass(out, header.getBodyClass());
+        CodecUtil.writeVarInt(out, header.getServiceId());
+        CodecUtil.writeVarInt(out, header.getMethodId());
+    }
+
+    @Override
+    public Header read(ByteBuf in) {
+        Header header = new Header();
+        header.setRequestId(CodecUtil.readVarLong(in));
+        header.setToken(CodecUtil.readString(in));
+        header.setBodyClass(readClass(in));
+        header.setServiceId(CodecUtil.readVarInt(in));
+        header.setMethodId(CodecUtil.readVarInt(in));
+        return header;
+    }
+
+    /**
+     * 用连接的动态表编码header，编码过程中同步修改表
+     */
+    public static void writeIndexed(Header header, ByteBuf out, HeaderTable table) {
+        long delta = header.getRequestId() - table.getLastRequestId();
+        table.setLastRequestId(header.getRequestId());
+        CodecUtil.writeVarLong(out, (delta << 1) ^ (delta >> 63));
+        writeRef(out, header.getToken(), table);
+        Class<?> type = header.getBodyClass();
+        int id = TypeRegistry.idOf(type);
+        CodecUtil.writeVarInt(out, id);
+        if (id == 0) {
+            writeRef(out, null == type ? null : type.getName(), table);
+        }
+        CodecUtil.writeVarInt(out, header.getServiceId());
+        CodecUtil.writeVarInt(out, header.getMethodId());
+    }
+
+    /**
+     * 用连接的动态表解码header
+     * @param peek 为true时只读不改表，用于正式解码之前偷看一眼header（见AuthHandler），之后同一帧还要再正式解码一次
+     */
+    public static Header readIndexed(ByteBuf in, HeaderTable table, boolean peek) {
+        Header header = new Header();
+        long zigzag = CodecUtil.readVarLong(in);
+        long requestId = table.getLastRequestId() + ((zigzag >>> 1) ^ -(zigzag & 1));
+        if (!peek) {
+            table.setLastRequestId(requestId);
+        }
+        header.setRequestId(requestId);
+        header.setToken(readRef(in, table, peek));
+        int id = CodecUtil.readVarInt(in);
+        header.setBodyClass(id != 0 ? lookup(id) : forName(readRef(in, table, peek)));
+        header.setServiceId(CodecUtil.readVarInt(in));
+        header.setMethodId(CodecUtil.readVarInt(in));
+        return header;
+    }
+
+    /**
+     * 字符串引用：varint(code)，0为null，1为字面量并插入表中，2为字面量不插入（太长放不进表），3+i为表中第i项
+     * 字面量的格式同CodecUtil.writeString
+     */
+    static void writeRef(ByteBuf out, String value, HeaderTable table) {
+        if (null == value) {
+            CodecUtil.writeVarInt(out, 0);
+            return;
+        }
+        int index = table.indexOf(value);
+        if (index >= 0) {
+            table.use(index);
+            CodecUtil.writeVarInt(out, 3 + index);
+            return;
+        }
+        if (table.fits(value)) {
+            table.insert(value);
+            CodecUtil.writeVarInt(out, 1);
+        } else {
+            CodecUtil.writeVarInt(out, 2);
+        }
+        CodecUtil.writeString(out, value);
+    }
+
+    static String readRef(ByteBuf in, HeaderTable table, boolean peek) {
+        int code = CodecUtil.readVarInt(in);
+        switch (code) {
+            case 0:
+                return null;
+            case 1:
+                String value = CodecUtil.readString(in);
+                if (!peek) {
+                    table.insert(value);
+                }
+                return value;
+            case 2:
+                return CodecUtil.readString(in);
+            default:
+                return peek ? table.get(code - 3) : table.use(code - 3);
+        }
+    }
+
+    static void writeClass(ByteBuf out, Class<?> type) {
+        int id = TypeRegistry.idOf(type);
+        CodecUtil.writeVarInt(out, id);
+        if (id == 0) {
+            CodecUtil.writeString(out, null == type ? null : type.getName());
+        }
+    }
+
+    static Class<?> readClass(ByteBuf in) {
+        int id = CodecUtil.readVarInt(in);
+        return id != 0 ? lookup(id) : forName(CodecUtil.readString(in));
+    }
+
+    private static Class<?> lookup(int id) {
+        TypeRegistry.Entry entry = TypeRegistry.lookup(id);
+        if (null == entry) {
+            throw new SerializationException("unknown type id: " + id);
+        }
+        return entry.getType();
+    }
+
+    private static Class<?> forName(String className) {
+        if (null == className) {
+            return null;
+        }
+        try {
+            return Class.forName(className, false, PlatformDependent.getClassLoader(HeaderCodec.class));
+        } catch (ClassNotFoundException e) {
+            throw new SerializationException("unknown body class: " + className, e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 连接级的header动态表（参考HTTP/2的HPACK），一个连接的每个方向各一张，发送端编码和接收端解码时按同样的顺序对表做同样的修改，两边的内容始终一致
+ * 字符串第一次出现时原样发送并插入表中，之后只发它在表中的下标；requestId只发和上一帧的差值
+ *
+ * 表的大小按 每个条目的字符数 + ENTRY_OVERHEAD 累加，插入时超过上限就淘汰最久没有用过的条目，新条目占用空出来的位置，其他条目的下标不变
+ *
+ * 发送端编码一帧的中途失败（比如帧超长被丢弃）时，对方根本收不到这一帧，需要用mark/rollback撤销这一帧对表的修改，否则两边的表就对不上了
+ *
+ * 非线程安全，只在连接的IO线程上访问
+ */
+public class HeaderTable {
+
+    //每个条目额外计入的大小，和HPACK一样取32，避免大量很短的字符串把表撑得很长
+    public static final int ENTRY_OVERHEAD = 32;
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    private final int maxSize;
+    //下标即条目在表中的编号，null表示空位
+    private final String[] values;
+    //条目最近一次被使用时的逻辑时钟，淘汰时选最小的
+    private final long[] lastUsed;
+    //字符串 -> 下标，编码时查找用
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private int size;
+    private long clock;
+    //上一帧的requestId
+    private long lastRequestId;
+
+    //mark之后被修改过的条目的原值，rollback时倒序恢复
+    private boolean marked;
+    private int undoCount;
+    private int[] undoSlots = new int[4];
+    private String[] undoValues = new String[4];
+    private long[] undoLastUsed = new long[4];
+    private int markedSize;
+    private long markedClock;
+    private long markedRequestId;
+
+    /**
+     * @param maxSize 表的大小上限，两端必须一致
+     */
+    public HeaderTable(int maxSize) {
+        if (maxSize < ENTRY_OVERHEAD) {
+            throw new IllegalArgumentException("maxSize must be at least " + ENTRY_OVERHEAD + ": " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.values = new String[maxSize / ENTRY_OVERHEAD];
+        this.lastUsed = new long[values.length];
+    }
+
+    /**
+     * @return value在表中的下标，不在表中返回-1
+     */
+    public int indexOf(String value) {
+        Integer index = indexes.get(value);
+        return null == index ? -1 : index;
+    }
+
+    /**
+     * 只读取，不算一次使用
+     */
+    public String get(int index) {
+        String value = index < values.length ? values[index] : null;
+        if (null == value) {
+            throw new SerializationException("header table index out of sync: " + index);
+        }
+        return value;
+    }
+
+    /**
+     * 读取并记一次使用
+     */
+    public String use(int index) {
+        String value = get(index);
+        save(index);
+        lastUsed[index] = ++clock;
+        return value;
+    }
+
+    /**
+     * @return value是否能放进表中，太长的字符串不插入，每次都原样发送
+     */
+    public boolean fits(String value) {
+        return sizeOf(value) <= maxSize;
+    }
+
+    /**
+     * 插入一个条目，空间不够时淘汰最久没有用过的条目，调用前需要先用fits判断
+     * @return 新条目的下标
+     */
+    public int insert(String value) {
+        int entrySize = sizeOf(value);
+        int free = -1;
+        while (size + entrySize > maxSize || (free = freeSlot()) < 0) {
+            evict(leastRecentlyUsed());
+        }
+        save(free);
+        values[free] = value;
+        lastUsed[free] = ++clock;
+        indexes.put(value, free);
+        size += entrySize;
+        return free;
+    }
+
+    public long getLastRequestId() {
+        return lastRequestId;
+    }
+
+    public void setLastRequestId(long lastRequestId) {
+        this.lastRequestId = lastRequestId;
+    }
+
+    /**
+     * 开始记录修改，之后的rollback可以把表恢复到这个时刻
+     */
+    public void mark() {
+        marked = true;
+        undoCount = 0;
+        markedSize = size;
+        markedClock = clock;
+        markedRequestId = lastRequestId;
+    }
+
+    /**
+     * 撤销mark之后的所有修改
+     */
+    public void rollback() {
+        if (!marked) {
+            return;
+        }
+        for (int i = undoCount - 1; i >= 0; i--) {
+            int slot = undoSlots[i];
+            unmap(values[slot], slot);
+            values[slot] = undoValues[i];
+            lastUsed[slot] = undoLastUsed[i];
+            if (null != undoValues[i]) {
+                indexes.put(undoValues[i], slot);
+            }
+        }
+        size = markedSize;
+        clock = markedClock;
+        lastRequestId = markedRequestId;
+        release();
+    }
+
+    /**
+     * 确认mark之后的修改，不再记录
+     */
+    public void release() {
+        marked = false;
+        Arrays.fill(undoValues, 0, undoCount, null);
+        undoCount = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    private static int sizeOf(String value) {
+        return value.length() + ENTRY_OVERHEAD;
+    }
+
+    private int freeSlot() {
+        for (int i = 0; i < values.length; i++) {
+            if (null == values[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 条目最多maxSize / ENTRY_OVERHEAD个，淘汰又很少发生，直接遍历
+     */
+    private int leastRecentlyUsed() {
+        int lru = -1;
+        for (int i = 0; i < values.length; i++) {
+            if (null != values[i] && (lru < 0 || lastUsed[i] < lastUsed[lru])) {
+                lru = i;
+            }
+        }
+        return lru;
+    }
+
+    private void evict(int slot) {
+        save(slot);
+        String value = values[slot];
+        unmap(value, slot);
+        values[slot] = null;
+        size -= sizeOf(value);
+    }
+
+    /**
+     * 对方重复插入同一个字符串时，indexes只指向最后插入的位置，这里只删除确实指向slot的映射
+     */
+    private void unmap(String value, int slot) {
+        if (null != value && Integer.valueOf(slot).equals(indexes.get(value))) {
+            indexes.remove(value);
+        }
+    }
+
+    private void save(int slot) {
+        if (!marked) {
+            return;
+        }
+        if (undoCount == undoSlots.length) {
+            undoSlots = Arrays.copyOf(undoSlots, undoCount * 2);
+            undoValues = Arrays.copyOf(undoValues, undoCount * 2);
+            undoLastUsed = Arrays.copyOf(undoLastUsed, undoCount * 2);
+        }
+        undoSlots[undoCount] = slot;
+        undoValues[undoCount] = values[slot];
+        undoLastUsed[undoCount] = lastUsed[slot];
+        undoCount++;
+    }
+}
@@ -0,0 +1,42 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * JDK序列化实现，和ObjectSerializer的格式一致，会把类描述信息一起写出去，体积大、速度慢
+ * 这里保留它是为了兼容没有在TypeRegistry中注册的类型
+ */
+public class JdkSerializer implements Serializer {
+
+    public static final JdkSerializer INSTANCE = new JdkSerializer();
+
+    @Override
+    public String name() {
+        return "jdk";
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        //直接把ObjectOutputStream架在ByteBuf上，省掉中间的ByteArrayOutputStream和toByteArray()拷贝
+        try (ObjectOutputStream oos = new ObjectOutputStream(new ByteBufOutputStream(out))) {
+            oos.writeObject(obj);
+        } catch (IOException e) {
+            throw new SerializationException("jdk serialize failed: " + obj, e);
+        }
+    }
+
+    @Override
+    public Object deserialize(ByteBuf in) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteBufInputStream(in))) {
+            return ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new SerializationException("jdk deserialize failed", e);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.io.*;
 
 /**
  * 对象序列化组件，这里直接使用了JDK自带的序列化技术，生产场景不建议使用
+ * 编解码器已经改为通过Serializer接口序列化，见CompactSerializer、JdkSerializer
  */
 @Slf4j
 public class ObjectSerializer {
@@ -0,0 +1,17 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+/**
+ * 序列化、反序列化失败时抛出
+ */
+public class SerializationException extends RuntimeException {
+
+    private static final long serialVersionUID = -2580383271573440398L;
+
+    public SerializationException(String message) {
+        super(message);
+    }
+
+    public SerializationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
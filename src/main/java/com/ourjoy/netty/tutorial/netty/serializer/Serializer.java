@@ -0,0 +1,33 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 序列化组件SPI，编解码器通过它把Header、Body与二进制互相转换
+ * 目前有两个实现：
+ * CompactSerializer：紧凑二进制格式，只写字段值，类型通过TypeRegistry中注册的小整数id表示，默认使用
+ * JdkSerializer：JDK自带的序列化，作为未注册类型的兜底方案
+ *
+ * 可以通过Serializers.SERIALIZER为每个Channel单独指定序列化组件，通信双方必须使用同一种
+ */
+public interface Serializer {
+
+    /**
+     * @return 序列化组件名称，用于日志输出
+     */
+    String name();
+
+    /**
+     * 将对象序列化后写入out，从out的writerIndex处开始写
+     * @param obj 待序列化对象，可以为null
+     * @param out 目标ByteBuf
+     */
+    void serialize(Object obj, ByteBuf out);
+
+    /**
+     * 从in的readerIndex处读取并反序列化出一个对象
+     * @param in 源ByteBuf
+     * @return 反序列化出的对象，可能为null
+     */
+    Object deserialize(ByteBuf in);
+}
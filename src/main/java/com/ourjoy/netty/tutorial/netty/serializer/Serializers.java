@@ -0,0 +1,24 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 按Channel选择序列化组件
+ * 在ChannelInitializer中执行 ch.attr(Serializers.SERIALIZER).set(JdkSerializer.INSTANCE) 即可让该连接回退到JDK序列化，
+ * 未设置时使用CompactSerializer
+ */
+public final class Serializers {
+
+    public static final AttributeKey<Serializer> SERIALIZER = AttributeKey.valueOf("serializer");
+
+    public static final Serializer DEFAULT = CompactSerializer.INSTANCE;
+
+    private Serializers() {
+    }
+
+    public static Serializer get(Channel channel) {
+        Serializer serializer = channel.attr(SERIALIZER).get();
+        return null == serializer ? DEFAULT : serializer;
+    }
+}
@@ -0,0 +1,16 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 单个类型的紧凑编解码器，只负责读写字段值，不写类型信息，类型id由CompactSerializer负责写出
+ * 实现类必须是无状态的，会被所有Channel共享
+ *
+ * @param <T> 负责编解码的类型
+ */
+public interface TypeCodec<T> {
+
+    void write(T value, ByteBuf out);
+
+    T read(ByteBuf in);
+}
@@ -0,0 +1,173 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 类型注册表，给需要走紧凑序列化的类型分配一个小整数id，通信双方的注册必须完全一致
+ * id取值范围是1~255，0固定表示null，绝大多数情况下类型id在线上只占1个字节
+ *
+ * 注册应该在服务启动时一次性完成，运行期只读
+ */
+public final class TypeRegistry {
+
+    public static final int MAX_TYPE_ID = 255;
+
+    //按id下标直接取，解码时不需要任何哈希查找
+    private static final Entry[] BY_ID = new Entry[MAX_TYPE_ID + 1];
+    private static final Map<Class<?>, Entry> BY_CLASS = new ConcurrentHashMap<>();
+
+    static {
+        //1~15留给基础类型
+        register(1, String.class, new TypeCodec<String>() {
+            @Override
+            public void write(String value, ByteBuf out) {
+                CodecUtil.writeString(out, value);
+            }
+
+            @Override
+            public String read(ByteBuf in) {
+                return CodecUtil.readString(in);
+            }
+        });
+        register(2, Integer.class, new TypeCodec<Integer>() {
+            @Override
+            public void write(Integer value, ByteBuf out) {
+                CodecUtil.writeNullableInt(out, value);
+            }
+
+            @Override
+            public Integer read(ByteBuf in) {
+                return CodecUtil.readNullableInt(in);
+            }
+        });
+        register(3, Long.class, new TypeCodec<Long>() {
+            @Override
+            public void write(Long value, ByteBuf out) {
+                CodecUtil.writeNullableLong(out, value);
+            }
+
+            @Override
+            public Long read(ByteBuf in) {
+                return CodecUtil.readNullableLong(in);
+            }
+        });
+        register(4, Boolean.class, new TypeCodec<Boolean>() {
+            @Override
+            public void write(Boolean value, ByteBuf out) {
+                out.writeBoolean(value);
+            }
+
+            @Override
+            public Boolean read(ByteBuf in) {
+                return in.readBoolean();
+            }
+        });
+        register(5, byte[].class, new TypeCodec<byte[]>() {
+            @Override
+            public void write(byte[] value, ByteBuf out) {
+                CodecUtil.writeVarInt(out, value.length);
+                out.writeBytes(value);
+            }
+
+            @Override
+            public byte[] read(ByteBuf in) {
+                byte[] value = new byte[CodecUtil.readLength(in)];
+                in.readBytes(value);
+                return value;
+            }
+        });
+        //RPC调用的参数列表，每个元素按CompactSerializer的格式写，自带类型id
+        register(6, Object[].class, new TypeCodec<Object[]>() {
+            @Override
+            public void write(Object[] value, ByteBuf out) {
+                CodecUtil.writeVarInt(out, value.length);
+                for (Object element : value) {
+                    CompactSerializer.INSTANCE.serialize(element, out);
+                }
+            }
+
+            @Override
+            public Object[] read(ByteBuf in) {
+                Object[] value = new Object[CodecUtil.readLength(in)];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = CompactSerializer.INSTANCE.deserialize(in);
+                }
+                return value;
+            }
+        });
+
+        //16开始是协议和业务对象
+        register(16, Header.class, new HeaderCodec());
+        register(17, User.class, new UserCodec());
+    }
+
+    private TypeRegistry() {
+    }
+
+    /**
+     * 注册一个类型，同一个id或同一个Class只能注册一次
+     */
+    public static synchronized <T> void register(int id, Class<T> type, TypeCodec<T> codec) {
+        if (id <= 0 || id > MAX_TYPE_ID) {
+            throw new IllegalArgumentException("type id must be in [1, " + MAX_TYPE_ID + "]: " + id);
+        }
+        if (null != BY_ID[id] || BY_CLASS.containsKey(type)) {
+            throw new IllegalStateException("type already registered: id=" + id + ", type=" + type.getName());
+        }
+        Entry entry = new Entry(id, type, codec);
+        BY_ID[id] = entry;
+        BY_CLASS.put(type, entry);
+    }
+
+    /**
+     * @return 类型对应的注册信息，未注册返回null
+     */
+    public static Entry lookup(Class<?> type) {
+        return BY_CLASS.get(type);
+    }
+
+    /**
+     * @return id对应的注册信息，未注册返回null
+     */
+    public static Entry lookup(int id) {
+        return id > 0 && id <= MAX_TYPE_ID ? BY_ID[id] : null;
+    }
+
+    /**
+     * @return 类型的id，未注册返回0
+     */
+    public static int idOf(Class<?> type) {
+        Entry entry = null == type ? null : BY_CLASS.get(type);
+        return null == entry ? 0 : entry.id;
+    }
+
+    public static final class Entry {
+        private final int id;
+        private final Class<?> type;
+        private final TypeCodec<Object> codec;
+
+        @SuppressWarnings("unchecked")
+        private Entry(int id, Class<?> type, TypeCodec<?> codec) {
+            this.id = id;
+            this.type = type;
+            this.codec = (TypeCodec<Object>) codec;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        public TypeCodec<Object> getCodec() {
+            return codec;
+        }
+    }
+}
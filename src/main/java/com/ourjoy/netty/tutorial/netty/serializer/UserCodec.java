@@ -0,0 +1,24 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * User的紧凑编解码，格式：name | age
+ */
+public class UserCodec implements TypeCodec<User> {
+
+    @Override
+    public void write(User user, ByteBuf out) {
+        CodecUtil.writeString(out, user.getName());
+        CodecUtil.writeNullableInt(out, user.getAge());
+    }
+
+    @Override
+    public User read(ByteBuf in) {
+        User user = new User();
+        user.setName(CodecUtil.readString(in));
+        user.setAge(CodecUtil.readNullableInt(in));
+        return user;
+    }
+}
@@ -0,0 +1,80 @@
+package com.ourjoy.netty.tutorial.netty.transport;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * 传输层实现，屏蔽NIO和Linux原生epoll的差异
+ * EPOLL：直接调用epoll，支持SO_REUSEPORT、边缘触发、TCP_QUICKACK、TCP_FASTOPEN等Linux特有参数，产生的垃圾对象也更少
+ * NIO：JDK的Selector实现，所有平台可用
+ *
+ * 默认自动选择：epoll可用时用EPOLL，否则回退到NIO，也可以通过 -Dnetty.transport=nio 强制使用NIO
+ */
+public enum Transport {
+
+    EPOLL {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String name) {
+            return new EpollEventLoopGroup(threads, new DefaultThreadFactory(name));
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return EpollSocketChannel.class;
+        }
+    },
+
+    NIO {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String name) {
+            return new NioEventLoopGroup(threads, new DefaultThreadFactory(name));
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return NioSocketChannel.class;
+        }
+    };
+
+    public abstract EventLoopGroup newEventLoopGroup(int threads, String name);
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    public abstract Class<? extends SocketChannel> socketChannelClass();
+
+    /**
+     * @return 当前环境下最优的传输层实现
+     */
+    public static Transport best() {
+        if ("nio".equalsIgnoreCase(System.getProperty("netty.transport"))) {
+            return NIO;
+        }
+        return Epoll.isAvailable() ? EPOLL : NIO;
+    }
+
+    /**
+     * 根据线程组推断传输层实现，Channel的类型必须和线程组匹配
+     */
+    public static Transport of(EventLoopGroup group) {
+        return group instanceof EpollEventLoopGroup ? EPOLL : NIO;
+    }
+}
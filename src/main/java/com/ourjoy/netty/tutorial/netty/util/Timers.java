@@ -0,0 +1,23 @@
+package com.ourjoy.netty.tutorial.netty.util;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内共享的时间轮
+ * 请求超时这类定时任务数量多、精度要求不高，绝大部分在到期前就会被取消，用时间轮添加和取消都是O(1)，只占用一个线程
+ */
+public final class Timers {
+
+    /**
+     * 每10ms转动一格，一圈512格
+     */
+    public static final Timer WHEEL = new HashedWheelTimer(
+            new DefaultThreadFactory("shared-wheel-timer", true), 10, TimeUnit.MILLISECONDS, 512);
+
+    private Timers() {
+    }
+}
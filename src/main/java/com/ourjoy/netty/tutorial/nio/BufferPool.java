@@ -0,0 +1,70 @@
+package com.ourjoy.netty.tutorial.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 直接内存ByteBuffer池，按2的幂分级，每个从Reactor一个，只在该Reactor线程上使用，不需要同步
+ *
+ * 堆内存ByteBuffer写socket时，JDK会先拷贝到一个临时的直接内存再写，每条消息都new一个还会给GC增加压力；
+ * 直接内存分配和回收都很贵，所以分配出来的直接内存用完后放回池里反复使用，这也是Netty PooledByteBufAllocator的思路
+ */
+class BufferPool {
+
+    //最小16字节，最大2MB，能装下最大帧：4字节长度 + 1MB消息体
+    private static final int MIN_SHIFT = 4;
+    private static final int MAX_SHIFT = 21;
+    //每个级别最多缓存的字节数，小级别另外限制个数，池本身占用的内存有上限
+    private static final int MAX_CACHED_BYTES_PER_CLASS = 4 * 1024 * 1024;
+    private static final int MAX_CACHED_BUFFERS_PER_CLASS = 1024;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+    //新分配直接内存的次数，池子工作正常时稳定后不再增长
+    private long allocations;
+
+    BufferPool() {
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 取一个容量不小于size的ByteBuffer，position为0，limit为size
+     */
+    ByteBuffer acquire(int size) {
+        int index = index(size);
+        ByteBuffer buffer = free[index].poll();
+        if (null == buffer) {
+            allocations++;
+            buffer = ByteBuffer.allocateDirect(1 << (index + MIN_SHIFT));
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * 归还acquire得到的ByteBuffer，归还后调用方不能再使用它
+     */
+    void release(ByteBuffer buffer) {
+        int index = Integer.numberOfTrailingZeros(buffer.capacity()) - MIN_SHIFT;
+        int maxCached = Math.min(MAX_CACHED_BUFFERS_PER_CLASS, MAX_CACHED_BYTES_PER_CLASS >>> (index + MIN_SHIFT));
+        if (free[index].size() < Math.max(1, maxCached)) {
+            free[index].push(buffer);
+        }
+        //超过上限的直接丢弃，由GC回收对应的直接内存
+    }
+
+    private static int index(int size) {
+        if (size > 1 << MAX_SHIFT) {
+            throw new IllegalArgumentException("buffer too large: " + size);
+        }
+        //向上取整到2的幂：17 -> 32 -> 下标1
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+
+    long getAllocations() {
+        return allocations;
+    }
+}
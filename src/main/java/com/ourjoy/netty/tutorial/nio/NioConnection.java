@@ -0,0 +1,207 @@
+package com.ourjoy.netty.tutorial.nio;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * 一个连接的读写状态，只在所属的从Reactor线程上访问
+ *
+ * TCP是字节流，一次read()可能只读到半个长度字段，也可能一次读到好几个完整的帧，
+ * 所以读到的字节先累积在readBuffer中，每次读完后尽可能多地切出完整的帧，剩下的半帧留到下一次读；
+ * 同样一次write()也可能只写出一部分，没写完的留在写队列里，注册写事件，等内核缓冲区有空间了再继续写
+ *
+ * 所有ByteBuffer都是从所属Reactor的BufferPool中取的直接内存，用完归还，读写路径上没有堆内存分配和多余的拷贝
+ */
+@Slf4j
+class NioConnection {
+
+    //长度字段的字节数
+    static final int LENGTH_FIELD_LENGTH = 4;
+    //单个帧的最大长度，超过认为是非法数据，直接断开，避免对方发一个巨大的长度把内存撑爆
+    static final int MAX_FRAME_LENGTH = 1024 * 1024;
+    //写队列积压超过该字节数时暂停读取该连接，对方不收响应就不再处理它的新请求，和Netty的写缓冲区高水位思路一样
+    static final int WRITE_HIGH_WATER_MARK = 64 * 1024;
+    private static final int INITIAL_READ_BUFFER_SIZE = 1024;
+    //一次聚集写最多带多少个ByteBuffer，不能超过操作系统的IOV_MAX(Linux上是1024)
+    private static final int MAX_GATHER = 64;
+
+    private final SelectionKey key;
+    private final SocketChannel socketChannel;
+    private final BufferPool bufferPool;
+    //读累积缓冲区，一直处于写模式：position之前是已读到还没处理的字节
+    private ByteBuffer readBuffer;
+    //待写出的响应，每个响应是长度和消息体两个ByteBuffer，队头可能已经写出了一部分
+    private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    //聚集写用的数组，复用
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private int pendingWriteBytes;
+    private boolean closed;
+
+    NioConnection(SelectionKey key, BufferPool bufferPool) {
+        this.key = key;
+        this.socketChannel = (SocketChannel) key.channel();
+        this.bufferPool = bufferPool;
+        this.readBuffer = bufferPool.acquire(INITIAL_READ_BUFFER_SIZE);
+    }
+
+    /**
+     * 处理读事件
+     */
+    void handleRead() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            //累积缓冲区满了还没凑够一帧，扩容，帧长度有上限，所以缓冲区大小也有上限
+            grow(readBuffer.capacity() * 2);
+        }
+        int readLen = socketChannel.read(readBuffer);
+        if (readLen < 0) {
+            //对方关闭了连接
+            throw new EOFException("connection closed by peer");
+        }
+        if (readLen == 0) {
+            return;
+        }
+
+        //切换为读模式，循环切出完整的帧
+        readBuffer.flip();
+        while (readBuffer.remaining() >= LENGTH_FIELD_LENGTH) {
+            int len = readBuffer.getInt(readBuffer.position());
+            if (len < 0 || len > MAX_FRAME_LENGTH) {
+                throw new IOException("illegal frame length: " + len);
+            }
+            if (readBuffer.remaining() < LENGTH_FIELD_LENGTH + len) {
+                //半帧，等下一次读
+                break;
+            }
+            readBuffer.position(readBuffer.position() + LENGTH_FIELD_LENGTH);
+            onMessage(len);
+        }
+        //没处理完的半帧挪到缓冲区开头，切回写模式
+        readBuffer.compact();
+        int position = readBuffer.position();
+        if (position >= LENGTH_FIELD_LENGTH) {
+            int frameLength = LENGTH_FIELD_LENGTH + readBuffer.getInt(0);
+            if (readBuffer.capacity() < frameLength) {
+                //已经知道这一帧有多长，一次扩到位
+                grow(frameLength);
+            }
+        } else if (position == 0 && readBuffer.capacity() > INITIAL_READ_BUFFER_SIZE) {
+            //大帧处理完了，换回小缓冲区，空闲连接不占着大块内存
+            bufferPool.release(readBuffer);
+            readBuffer = bufferPool.acquire(INITIAL_READ_BUFFER_SIZE);
+        }
+
+        //同一次读到的多个请求的响应一起写，不够的部分注册写事件
+        flush();
+    }
+
+    /**
+     * 业务处理，这里拿到客户端的消息后，直接原样返回
+     * 消息体本来就是UTF-8字节，原样返回不需要先解码成String再编码回来，直接从读缓冲区拷贝到响应的缓冲区
+     * @param len 消息体长度，readBuffer的position指向消息体开头，处理完后移到消息体末尾
+     */
+    private void onMessage(int len) {
+        ByteBuffer body = readBuffer.duplicate();
+        body.limit(body.position() + len);
+        readBuffer.position(body.limit());
+        if (log.isDebugEnabled()) {
+            byte[] data = new byte[len];
+            body.duplicate().get(data);
+            log.debug("read client msg: " + new String(data, StandardCharsets.UTF_8));
+        }
+
+        //长度和消息体分成两个ByteBuffer，写出时用一次聚集写发出去，不需要先拼到一起
+        ByteBuffer lengthBuffer = bufferPool.acquire(LENGTH_FIELD_LENGTH);
+        lengthBuffer.putInt(len).flip();
+        ByteBuffer bodyBuffer = bufferPool.acquire(len);
+        bodyBuffer.put(body).flip();
+        writeQueue.add(lengthBuffer);
+        writeQueue.add(bodyBuffer);
+        pendingWriteBytes += LENGTH_FIELD_LENGTH + len;
+    }
+
+    /**
+     * 处理写事件，内核缓冲区有空间了，继续写出积压的响应
+     */
+    void handleWrite() throws IOException {
+        flush();
+    }
+
+    /**
+     * 尽可能多地写出写队列，写不完就注册写事件，写完就注销写事件
+     * 一定要在需要写的时候才注册写事件，写完后立即注销写事件，否则只要内核缓冲区未满，就会一直触发写事件，CPU会飙高
+     */
+    private void flush() throws IOException {
+        while (!writeQueue.isEmpty()) {
+            //聚集写：队列中的多个ByteBuffer一次系统调用(writev)写出去
+            int count = 0;
+            for (ByteBuffer buffer : writeQueue) {
+                gather[count++] = buffer;
+                if (count == MAX_GATHER) {
+                    break;
+                }
+            }
+            long written = socketChannel.write(gather, 0, count);
+            Arrays.fill(gather, 0, count, null);
+            pendingWriteBytes -= (int) written;
+            //写完的归还到池里，写了一部分的留在队头
+            int completed = 0;
+            while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+                bufferPool.release(writeQueue.poll());
+                completed++;
+            }
+            if (completed < count) {
+                //这一批没写完，内核发送缓冲区满了
+                break;
+            }
+        }
+
+        int ops = SelectionKey.OP_READ;
+        if (!writeQueue.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+            if (pendingWriteBytes > WRITE_HIGH_WATER_MARK) {
+                //积压太多，暂停读，写出去之后在下一次flush中恢复
+                ops &= ~SelectionKey.OP_READ;
+            }
+        }
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.min(Math.max(minCapacity, readBuffer.capacity() * 2), LENGTH_FIELD_LENGTH + MAX_FRAME_LENGTH);
+        ByteBuffer newBuffer = bufferPool.acquire(capacity);
+        readBuffer.flip();
+        newBuffer.put(readBuffer);
+        bufferPool.release(readBuffer);
+        readBuffer = newBuffer;
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        key.cancel();
+        try {
+            socketChannel.close();
+        } catch (IOException ignore) {
+            //关闭失败也没有更多可做的了
+        }
+        //连接上持有的缓冲区全部归还
+        bufferPool.release(readBuffer);
+        readBuffer = null;
+        ByteBuffer buffer;
+        while (null != (buffer = writeQueue.poll())) {
+            bufferPool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.ourjoy.netty.tutorial.nio;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 从Reactor，一个线程一个Selector，负责分配到它上面的所有连接的读写
+ *
+ * 新连接由主Reactor线程交过来，但SocketChannel.register会和正在阻塞的select()争抢同一把锁，
+ * 所以主Reactor只把连接放进队列并wakeup，真正的注册在本线程上执行
+ */
+@Slf4j
+class SubReactor implements Runnable {
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    //本Reactor上所有连接共用的缓冲区池，只在本线程上访问
+    private final BufferPool bufferPool = new BufferPool();
+    private volatile boolean running = true;
+
+    SubReactor(String name) throws IOException {
+        //打开一个选择器，每个从Reactor独享
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * 主Reactor线程调用
+     */
+    void register(SocketChannel socketChannel) {
+        pendingRegistrations.offer(socketChannel);
+        //唤醒阻塞在select()上的线程，让它尽快处理注册
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                if (!running) {
+                    break;
+                }
+                processRegistrations();
+                processSelectedKeys();
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Exception e) {
+                log.error("nio sub reactor error.", e);
+            }
+        }
+        log.info(thread.getName() + " stopped, direct buffers allocated: " + bufferPool.getAllocations());
+        //连接和Selector都只在本线程上操作，退出时由本线程关闭
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly((SocketChannel) key.channel());
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.info("nio selector close IOException.", e);
+        }
+    }
+
+    private void processRegistrations() {
+        SocketChannel socketChannel;
+        while (null != (socketChannel = pendingRegistrations.poll())) {
+            try {
+                //注册读事件到选择器，连接的读写状态挂在附件上
+                SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(key, bufferPool));
+                if (log.isDebugEnabled()) {
+                    log.debug("accept " + socketChannel.getRemoteAddress() + " on " + thread.getName());
+                }
+            } catch (IOException e) {
+                log.info("nio register IOException.", e);
+                closeQuietly(socketChannel);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        //拿到所有已经就绪的SelectionKey，进行迭代处理
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            //这里处理完一个事件后，需要手动删除掉，不会自动删除
+            iterator.remove();
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                //读写事件可能同时就绪，两个都要处理，不能else if
+                if (key.isValid() && key.isReadable()) {
+                    connection.handleRead();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.handleWrite();
+                }
+            } catch (IOException e) {
+                //一个连接出错只关闭这个连接，同一批就绪的其他连接继续处理
+                if (log.isDebugEnabled()) {
+                    log.debug("nio connection IOException.", e);
+                }
+                connection.close();
+            }
+        }
+    }
+
+    void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(SocketChannel socketChannel) {
+        try {
+            socketChannel.close();
+        } catch (IOException ignore) {
+            //关闭失败也没有更多可做的了
+        }
+    }
+}
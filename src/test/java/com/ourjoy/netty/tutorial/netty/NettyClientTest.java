@@ -0,0 +1,164 @@
+package com.ourjoy.netty.tutorial.netty;
+
+import com.ourjoy.netty.tutorial.netty.codec.FrameDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.ourjoy.netty.tutorial.netty.TestMessages.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NettyClientTest {
+
+    private EventLoopGroup group;
+    private Channel serverChannel;
+    //服务端收到的请求，由测试决定什么时候、按什么顺序回响应
+    private final BlockingQueue<Protocol> requests = new LinkedBlockingQueue<>();
+    private volatile Channel accepted;
+    private NettyClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        group = new NioEventLoopGroup(2);
+        serverChannel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new MyEncoder(), new FrameDecoder(), new MyDecoder(), new SimpleChannelInboundHandler<Protocol>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, Protocol request) {
+                                accepted = ctx.channel();
+                                requests.add(request);
+                            }
+                        });
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+
+        client = new NettyClient(group, "127.0.0.1", ((InetSocketAddress) serverChannel.localAddress()).getPort());
+        //不发心跳，也不协商header字典，服务端只会收到测试发出的请求
+        client.setHeartbeat(0, 0);
+        client.setHeaderTableSize(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        serverChannel.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    private static Protocol newResponse(Protocol request) {
+        Header header = new Header();
+        header.setRequestId(request.getHeader().getRequestId());
+        header.setBodyClass(User.class);
+        Protocol response = new Protocol();
+        response.setMagicNum(0xABABABAB);
+        response.setHeader(header);
+        response.setBody(new User(((User) request.getBody()).getName() + "-response", 1));
+        return response;
+    }
+
+    private static Throwable causeOf(CompletableFuture<Protocol> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("future must fail");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void responsesOutOfOrderCompleteTheRightFutures() throws Exception {
+        client.start();
+        List<CompletableFuture<Protocol>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(client.send(newRequest(0, "user-" + i)));
+        }
+        List<Protocol> received = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            received.add(requests.take());
+        }
+
+        //倒序回响应
+        for (int i = 2; i >= 0; i--) {
+            accepted.writeAndFlush(newResponse(received.get(i)));
+        }
+        for (int i = 0; i < 3; i++) {
+            Protocol response = futures.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals("user-" + i + "-response", ((User) response.getBody()).getName());
+        }
+        assertEquals(0, client.pendingCount());
+    }
+
+    @Test(timeout = 10_000)
+    public void timeoutRemovesThePendingRequest() throws Exception {
+        client.start();
+        CompletableFuture<Protocol> future = client.send(newRequest(0, "slow"), 50);
+        Protocol request = requests.take();
+        assertEquals(1, client.pendingCount());
+
+        assertTrue(causeOf(future) instanceof TimeoutException);
+        assertEquals(0, client.pendingCount());
+
+        //超时之后才到的响应找不到对应的请求，直接丢掉
+        accepted.writeAndFlush(newResponse(request)).sync();
+        CompletableFuture<Protocol> next = client.send(newRequest(0, "next"));
+        accepted.writeAndFlush(newResponse(requests.take()));
+        assertEquals("next-response", ((User) next.get(5, TimeUnit.SECONDS).getBody()).getName());
+        assertEquals(0, client.pendingCount());
+    }
+
+    @Test(timeout = 10_000)
+    public void closedChannelFailsAllPendingRequests() throws Exception {
+        client.start();
+        CompletableFuture<Protocol> first = client.send(newRequest(0, "a"));
+        CompletableFuture<Protocol> second = client.send(newRequest(0, "b"));
+        requests.take();
+        requests.take();
+        assertEquals(2, client.pendingCount());
+
+        //服务端断开连接，没有任何响应
+        accepted.close();
+        assertTrue(causeOf(first) instanceof ClosedChannelException);
+        assertTrue(causeOf(second) instanceof ClosedChannelException);
+        assertEquals(0, client.pendingCount());
+    }
+
+    @Test
+    public void sendBeforeStartFailsImmediately() throws Exception {
+        CompletableFuture<Protocol> future = client.send(newRequest(0, "early"));
+        assertTrue(future.isCompletedExceptionally());
+        assertTrue(causeOf(future) instanceof IllegalStateException);
+        assertEquals(0, client.pendingCount());
+    }
+}
@@ -0,0 +1,70 @@
+package com.ourjoy.netty.tutorial.netty;
+
+import com.ourjoy.netty.tutorial.netty.codec.FrameDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * 测试共用的消息构造和编解码方法
+ */
+public final class TestMessages {
+
+    public static final String TOKEN = "i am token";
+
+    private TestMessages() {
+    }
+
+    /**
+     * 构建一个body为User的请求
+     */
+    public static Protocol newRequest(long requestId, String token, String name) {
+        Header header = new Header();
+        header.setRequestId(requestId);
+        header.setToken(token);
+        header.setBodyClass(User.class);
+        Protocol protocol = new Protocol();
+        protocol.setMagicNum(0xABABABAB);
+        protocol.setHeader(header);
+        protocol.setBody(new User(name, 1));
+        return protocol;
+    }
+
+    public static Protocol newRequest(long requestId, String name) {
+        return newRequest(requestId, TOKEN, name);
+    }
+
+    public static Protocol newRequest(long requestId) {
+        return newRequest(requestId, TOKEN, "zhangsan");
+    }
+
+    /**
+     * 用一个单独的编码Channel把Protocol或者Batch编码成帧
+     */
+    public static ByteBuf encode(Object msg) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new MyEncoder());
+        encoder.writeOutbound(msg);
+        return encoder.readOutbound();
+    }
+
+    /**
+     * 用一个单独的解码Channel把帧解码，帧里有多条消息时只返回第一条
+     */
+    public static Protocol decode(ByteBuf frame) {
+        EmbeddedChannel decoder = new EmbeddedChannel(new FrameDecoder(), new MyDecoder());
+        decoder.writeInbound(frame);
+        return decoder.readInbound();
+    }
+
+    public static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,163 @@
+package com.ourjoy.netty.tutorial.netty.auth;
+
+import com.ourjoy.netty.tutorial.netty.codec.FrameDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.HeaderDictionary;
+import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.handler.HeartbeatHandler;
+import com.ourjoy.netty.tutorial.netty.protocol.Batch;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ourjoy.netty.tutorial.netty.TestMessages.decode;
+import static com.ourjoy.netty.tutorial.netty.TestMessages.encode;
+import static com.ourjoy.netty.tutorial.netty.TestMessages.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AuthHandlerTest {
+
+    private final AtomicInteger verifications = new AtomicInteger();
+    private final AuthHandler authHandler = new AuthHandler(token -> {
+        verifications.incrementAndGet();
+        return "good".equals(token);
+    }, new TokenCache(16, 60_000L));
+
+    private EmbeddedChannel newServerChannel() {
+        return new EmbeddedChannel(new MyEncoder(), new FrameDecoder(), authHandler, new MyDecoder());
+    }
+
+    private static void assertUnauthorized(EmbeddedChannel channel, long requestId) {
+        Protocol rejected = decode((ByteBuf) channel.readOutbound());
+        assertTrue(rejected.hasFlag(Protocol.FLAG_UNAUTHORIZED));
+        assertEquals(requestId, rejected.getHeader().getRequestId());
+        assertNull(rejected.getBody());
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void validTokenIsVerifiedOncePerToken() {
+        EmbeddedChannel first = newServerChannel();
+        first.writeInbound(encode(newRequest(1, "good", "zhangsan")), encode(newRequest(2, "good", "zhangsan")));
+        assertEquals(1L, ((Protocol) first.readInbound()).getHeader().getRequestId());
+        assertEquals(2L, ((Protocol) first.readInbound()).getHeader().getRequestId());
+        //认证通过后仍然留在pipeline中，每一帧都要验证
+        assertNotNull(first.pipeline().get(AuthHandler.class));
+
+        EmbeddedChannel second = newServerChannel();
+        second.writeInbound(encode(newRequest(1, "good", "zhangsan")));
+        assertTrue(second.readInbound() instanceof Protocol);
+
+        //第二个连接命中缓存
+        assertEquals(1, verifications.get());
+        assertFalse(first.finish());
+        assertFalse(second.finish());
+    }
+
+    @Test
+    public void invalidTokenIsRejectedBeforeBodyDecode() {
+        EmbeddedChannel channel = newServerChannel();
+        channel.writeInbound(encode(newRequest(7, "bad", "zhangsan")));
+        assertNull(channel.readInbound());
+        assertUnauthorized(channel, 7);
+        assertEquals(1L, authHandler.getRejectedCount());
+    }
+
+    @Test
+    public void laterFrameWithBadTokenIsRejected() {
+        EmbeddedChannel channel = newServerChannel();
+        channel.writeInbound(encode(newRequest(1, "good", "zhangsan")));
+        assertEquals(1L, ((Protocol) channel.readInbound()).getHeader().getRequestId());
+
+        //同一个连接上第一帧通过了，后面换成错误的token也要拒绝
+        channel.writeInbound(encode(newRequest(2, "bad", "zhangsan")));
+        assertNull(channel.readInbound());
+        assertUnauthorized(channel, 2);
+        assertEquals(1L, authHandler.getRejectedCount());
+    }
+
+    @Test
+    public void expiredTokenIsVerifiedAgain() throws Exception {
+        AuthHandler shortLived = new AuthHandler(token -> {
+            verifications.incrementAndGet();
+            return "good".equals(token);
+        }, new TokenCache(16, 1L));
+        EmbeddedChannel channel = new EmbeddedChannel(new MyEncoder(), new FrameDecoder(), shortLived, new MyDecoder());
+        channel.writeInbound(encode(newRequest(1, "good", "zhangsan")));
+        assertTrue(channel.readInbound() instanceof Protocol);
+        assertEquals(1, verifications.get());
+
+        //连接上记下的认证结果和缓存一起过期，重新验证
+        Thread.sleep(5);
+        channel.writeInbound(encode(newRequest(2, "good", "zhangsan")));
+        assertTrue(channel.readInbound() instanceof Protocol);
+        assertEquals(2, verifications.get());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void batchFrameWithPingFlagIsNotTreatedAsHeartbeat() {
+        //伪造的批量帧：外层FLAGS带上FLAG_PING，子消息的token是错的
+        ByteBuf forged = encode(new Batch(Arrays.asList(newRequest(1, "bad", "zhangsan"), newRequest(2, "bad", "zhangsan"))));
+        int flags = forged.readerIndex() + MyEncoder.FLAGS_OFFSET;
+        forged.setByte(flags, forged.getByte(flags) | Protocol.FLAG_PING);
+        EmbeddedChannel channel = newServerChannel();
+        channel.writeInbound(forged);
+        assertNull(channel.readInbound());
+        assertUnauthorized(channel, 1);
+
+        //token正确也不行，MyDecoder拒绝带心跳标志位的批量帧
+        ByteBuf pinged = encode(new Batch(Arrays.asList(newRequest(1, "good", "zhangsan"), newRequest(2, "good", "zhangsan"))));
+        pinged.setByte(flags, pinged.getByte(flags) | Protocol.FLAG_PING);
+        EmbeddedChannel decoder = new EmbeddedChannel(new FrameDecoder(), new MyDecoder());
+        decoder.writeInbound(pinged);
+        assertNull(decoder.readInbound());
+        assertFalse(decoder.isOpen());
+    }
+
+    @Test
+    public void batchWithMixedTokensIsRejected() {
+        EmbeddedChannel channel = newServerChannel();
+        channel.writeInbound(encode(new Batch(Arrays.asList(
+                newRequest(1, "good", "zhangsan"), newRequest(2, "bad", "zhangsan"), newRequest(3, "good", "zhangsan")))));
+        assertNull(channel.readInbound());
+        assertUnauthorized(channel, 1);
+        assertEquals(1L, authHandler.getRejectedCount());
+    }
+
+    @Test
+    public void batchEncodedWithHeaderDictionaryIsAuthenticated() {
+        //后面的子消息引用前面子消息插入动态表的token，每条子消息都要能偷看到，偷看之后表不能乱
+        EmbeddedChannel client = new EmbeddedChannel();
+        client.attr(HeaderDictionary.KEY).set(new HeaderDictionary(4096));
+        client.pipeline().addLast(new MyEncoder(), new FrameDecoder(), new MyDecoder(), new HeartbeatHandler(0, 0, null));
+        EmbeddedChannel server = new EmbeddedChannel();
+        server.attr(HeaderDictionary.KEY).set(new HeaderDictionary(4096));
+        server.pipeline().addLast(new MyEncoder(), new FrameDecoder(), authHandler, new MyDecoder(), new HeartbeatHandler(0, 0, null));
+        HeaderDictionary.offer(client);
+        server.writeInbound((ByteBuf) client.readOutbound());
+        client.writeInbound((ByteBuf) server.readOutbound());
+        assertTrue(HeaderDictionary.get(server).isEnabled());
+
+        for (long batch = 0; batch < 2; batch++) {
+            client.writeOutbound(new Batch(Arrays.asList(newRequest(batch * 2 + 1, "good", "zhangsan"), newRequest(batch * 2 + 2, "good", "zhangsan"))));
+            server.writeInbound((ByteBuf) client.readOutbound());
+            for (long requestId = batch * 2 + 1; requestId <= batch * 2 + 2; requestId++) {
+                Protocol decoded = server.readInbound();
+                assertEquals(requestId, decoded.getHeader().getRequestId());
+                assertEquals("good", decoded.getHeader().getToken());
+            }
+        }
+        assertEquals(0L, authHandler.getRejectedCount());
+        assertFalse(client.finish());
+        assertFalse(server.finish());
+    }
+}
@@ -0,0 +1,87 @@
+package com.ourjoy.netty.tutorial.netty.cache;
+
+import com.ourjoy.netty.tutorial.netty.codec.FrameDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.handler.ServerHandler;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.serializer.Serializers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ourjoy.netty.tutorial.netty.TestMessages.decode;
+import static com.ourjoy.netty.tutorial.netty.TestMessages.encode;
+import static com.ourjoy.netty.tutorial.netty.TestMessages.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void repeatedRequestIsAnsweredFromCache() {
+        ResponseCache cache = new ResponseCache(1024 * 1024, 60_000);
+        AtomicInteger handled = new AtomicInteger();
+        EmbeddedChannel server = new EmbeddedChannel(new MyEncoder(), new FrameDecoder(), new MyDecoder(null, true),
+                new ResponseCacheHandler(cache), new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                handled.incrementAndGet();
+                ctx.fireChannelRead(msg);
+            }
+        }, new ServerHandler());
+
+        server.writeInbound(encode(newRequest(1, "zhangsan")));
+        server.writeInbound(encode(newRequest(2, "zhangsan")));
+        server.writeInbound(encode(newRequest(3, "lisi")));
+        assertEquals(2, handled.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        for (long requestId = 1; requestId <= 3; requestId++) {
+            Protocol response = decode((ByteBuf) server.readOutbound());
+            assertEquals(requestId, response.getHeader().getRequestId());
+            assertEquals("i'am response token", response.getHeader().getToken());
+            assertEquals(requestId == 3 ? "lisi" : "zhangsan", ((User) response.getBody()).getName());
+            assertEquals(Integer.valueOf(32), ((User) response.getBody()).getAge());
+        }
+        assertFalse(server.finish());
+    }
+
+    @Test
+    public void entriesAreEvictedBySizeAndExpireByTtl() throws Exception {
+        //每段300字节，只放得下一个条目
+        ResponseCache cache = new ResponseCache(16 * 300, 50);
+        Protocol response = newRequest(0, "r");
+        RequestKey[] keys = new RequestKey[64];
+        for (int i = 0; i < keys.length; i++) {
+            ByteBuf body = Unpooled.buffer();
+            Serializers.DEFAULT.serialize(new User("u" + i, i), body);
+            Protocol request = newRequest(i, "u" + i);
+            request.setRawBody(body, Serializers.DEFAULT);
+            keys[i] = RequestKey.of(request).copy();
+            cache.put(keys[i], response, Unpooled.copiedBuffer(new byte[8]));
+        }
+        assertTrue(cache.size() <= 16);
+        assertEquals(keys.length, cache.size() + cache.getEvictionCount());
+        assertTrue(cache.getBytes() <= 16 * 300);
+
+        RequestKey last = keys[keys.length - 1];
+        Protocol hit = cache.get(last, 7, Serializers.DEFAULT);
+        assertNotNull(hit);
+        assertEquals(7, hit.getHeader().getRequestId());
+        hit.release();
+
+        Thread.sleep(60);
+        assertNull(cache.get(last, 8, Serializers.DEFAULT));
+    }
+}
@@ -0,0 +1,137 @@
+package com.ourjoy.netty.tutorial.netty.codec;
+
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.compression.DecompressionException;
+import org.junit.Test;
+
+import static com.ourjoy.netty.tutorial.netty.TestMessages.newRequest;
+import static com.ourjoy.netty.tutorial.netty.TestMessages.repeat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CodecTest {
+
+    @Test
+    public void roundTrip() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MyEncoder(), new FrameDecoder(), new MyDecoder());
+        channel.writeOutbound(newRequest(0, "zhangsan"));
+        ByteBuf frame = channel.readOutbound();
+
+        channel.writeInbound(frame);
+        Protocol decoded = channel.readInbound();
+        assertEquals("i am token", decoded.getHeader().getToken());
+        assertEquals("zhangsan", ((User) decoded.getBody()).getName());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void largeFrameArrivingInDirectFragments() {
+        String name = repeat('x', 40 * 1024);
+        EmbeddedChannel channel = new EmbeddedChannel(new MyEncoder(), new FrameDecoder(), new MyDecoder());
+        channel.writeOutbound(newRequest(0, name));
+        ByteBuf frame = channel.readOutbound();
+
+        //模拟TCP分段：把一个帧拆成多个1KB的池化堆外buffer依次写入
+        while (frame.isReadable()) {
+            int len = Math.min(1024, frame.readableBytes());
+            ByteBuf piece = PooledByteBufAllocator.DEFAULT.directBuffer(len);
+            piece.writeBytes(frame, len);
+            channel.writeInbound(piece);
+        }
+        frame.release();
+
+        Protocol decoded = channel.readInbound();
+        assertEquals(name, ((User) decoded.getBody()).getName());
+        assertNull(channel.readInbound());
+        assertFalse(channel.finish());
+    }
+
+    @Test(expected = EncoderException.class)
+    public void frameLongerThanLengthFieldIsRejected() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MyEncoder());
+        channel.writeOutbound(newRequest(0, repeat('x', MyEncoder.MAX_FRAME_LENGTH)));
+    }
+
+    @Test
+    public void largeBodyIsCompressed() {
+        String name = repeat('x', 8 * 1024);
+        EmbeddedChannel channel = new EmbeddedChannel(new CompressionEncoder(1024), new MyEncoder(), new FrameDecoder(), new MyDecoder());
+        channel.writeOutbound(newRequest(0, name));
+        ByteBuf frame = channel.readOutbound();
+        assertEquals(Protocol.FLAG_COMPRESSED, frame.getByte(MyEncoder.FLAGS_OFFSET));
+        assertTrue(frame.readableBytes() < 1024);
+
+        channel.writeInbound(frame);
+        Protocol decoded = channel.readInbound();
+        assertEquals(name, ((User) decoded.getBody()).getName());
+        assertFalse(decoded.hasFlag(Protocol.FLAG_COMPRESSED));
+        assertFalse(channel.finish());
+    }
+
+    @Test(expected = DecompressionException.class)
+    public void hugeUncompressedLengthIsRejectedBeforeAllocating() {
+        //声明压缩前约2GB的Snappy数据，只有几个字节
+        ByteBuf body = Unpooled.wrappedBuffer(new byte[]{(byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0x00});
+        CompressionEncoder.decompress(UnpooledByteBufAllocator.DEFAULT, body);
+    }
+
+    @Test
+    public void compressionCanBeDisabledPerChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel(new CompressionEncoder(1024), new MyEncoder());
+        channel.attr(CompressionEncoder.DISABLED).set(true);
+        channel.writeOutbound(newRequest(0, repeat('x', 8 * 1024)));
+        ByteBuf frame = channel.readOutbound();
+        assertEquals(0, frame.getByte(MyEncoder.FLAGS_OFFSET));
+        frame.release();
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void lazyBodyIsForwardedAsRawBytes() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MyEncoder(), new FrameDecoder(), new MyDecoder(null, true));
+        channel.writeOutbound(newRequest(0, "zhangsan"));
+        ByteBuf frame = channel.readOutbound();
+        ByteBuf expected = frame.copy();
+
+        channel.writeInbound(frame);
+        Protocol decoded = channel.readInbound();
+        assertTrue(decoded.hasRawBody());
+        assertEquals(1, decoded.refCnt());
+
+        //没有调用过getBody，原样转发，编码器写出后release
+        channel.writeOutbound(decoded);
+        ByteBuf forwarded = channel.readOutbound();
+        assertEquals(expected, forwarded);
+        assertEquals(0, decoded.refCnt());
+
+        expected.release();
+        forwarded.release();
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void lazyCompressedBodyIsDecodedOnFirstAccess() {
+        String name = repeat('x', 8 * 1024);
+        EmbeddedChannel channel = new EmbeddedChannel(new CompressionEncoder(1024), new MyEncoder(),
+                new FrameDecoder(), new MyDecoder(null, true));
+        channel.writeOutbound(newRequest(0, name));
+        channel.writeInbound((ByteBuf) channel.readOutbound());
+
+        Protocol decoded = channel.readInbound();
+        assertTrue(decoded.hasFlag(Protocol.FLAG_COMPRESSED));
+        assertEquals(name, ((User) decoded.getBody()).getName());
+        assertFalse(decoded.hasFlag(Protocol.FLAG_COMPRESSED));
+        assertFalse(decoded.hasRawBody());
+        assertTrue(decoded.release());
+        assertFalse(channel.finish());
+    }
+}
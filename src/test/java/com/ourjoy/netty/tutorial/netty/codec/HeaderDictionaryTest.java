@@ -0,0 +1,106 @@
+package com.ourjoy.netty.tutorial.netty.codec;
+
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.handler.HeartbeatHandler;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import org.junit.Test;
+
+import static com.ourjoy.netty.tutorial.netty.TestMessages.newRequest;
+import static com.ourjoy.netty.tutorial.netty.TestMessages.repeat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HeaderDictionaryTest {
+
+    private static EmbeddedChannel newChannel(int tableSize) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.attr(HeaderDictionary.KEY).set(new HeaderDictionary(tableSize));
+        channel.pipeline().addLast(new MyEncoder(), new FrameDecoder(), new MyDecoder(), new HeartbeatHandler(0, 0, null));
+        return channel;
+    }
+
+    /**
+     * client先发协商PING，server回PONG，之后两边都开启字典
+     */
+    private static void negotiate(EmbeddedChannel client, EmbeddedChannel server) {
+        HeaderDictionary.offer(client);
+        server.writeInbound((ByteBuf) client.readOutbound());
+        client.writeInbound((ByteBuf) server.readOutbound());
+        assertTrue(HeaderDictionary.get(client).isEnabled());
+        assertTrue(HeaderDictionary.get(server).isEnabled());
+    }
+
+    /**
+     * 把client发出的一帧交给server解码
+     * @return 帧的字节数
+     */
+    private static int transfer(EmbeddedChannel client, EmbeddedChannel server, Protocol request) {
+        client.writeOutbound(request);
+        ByteBuf frame = client.readOutbound();
+        int length = frame.readableBytes();
+        server.writeInbound(frame);
+        return length;
+    }
+
+    private static void assertDecoded(EmbeddedChannel server, long requestId, String token) {
+        Protocol decoded = server.readInbound();
+        assertEquals(requestId, decoded.getHeader().getRequestId());
+        assertEquals(token, decoded.getHeader().getToken());
+        assertEquals(User.class, decoded.getHeader().getBodyClass());
+        assertFalse(decoded.hasFlag(Protocol.FLAG_DICT));
+    }
+
+    @Test
+    public void repeatedHeadersShrinkAndTablesStayInSync() {
+        EmbeddedChannel client = newChannel(4096);
+        //表只放得下两个token，第三个token会把最久没用的挤掉
+        EmbeddedChannel server = newChannel(200);
+        String token = "eyJhbGciOiJIUzI1NiJ9.a-token-that-looks-like-a-jwt";
+
+        int plain = transfer(client, server, newRequest(1, token, "a"));
+        assertDecoded(server, 1, token);
+
+        negotiate(client, server);
+        int first = transfer(client, server, newRequest(2, token, "a"));
+        int second = transfer(client, server, newRequest(3, token, "a"));
+        assertDecoded(server, 2, token);
+        assertDecoded(server, 3, token);
+        //第一次原样发送，第二次只发下标
+        assertTrue(first >= plain);
+        assertTrue(plain - second >= token.length());
+
+        String[] tokens = {token, token + "-2", token + "-3", token, token + "-2", token + "-3"};
+        for (int i = 0; i < tokens.length; i++) {
+            transfer(client, server, newRequest(100 - i, tokens[i], "a"));
+            assertDecoded(server, 100 - i, tokens[i]);
+        }
+        assertFalse(client.finish());
+        assertFalse(server.finish());
+    }
+
+    @Test
+    public void failedEncodeDoesNotDesyncTables() {
+        EmbeddedChannel client = newChannel(4096);
+        EmbeddedChannel server = newChannel(4096);
+        negotiate(client, server);
+
+        String name = repeat('x', MyEncoder.MAX_FRAME_LENGTH);
+        try {
+            client.writeOutbound(newRequest(1, "token-of-the-dropped-frame", name));
+            fail();
+        } catch (EncoderException expected) {
+        }
+
+        transfer(client, server, newRequest(2, "token-of-the-dropped-frame", "a"));
+        assertDecoded(server, 2, "token-of-the-dropped-frame");
+        transfer(client, server, newRequest(3, "token-of-the-dropped-frame", "a"));
+        assertDecoded(server, 3, "token-of-the-dropped-frame");
+        assertFalse(client.finish());
+        assertFalse(server.finish());
+    }
+}
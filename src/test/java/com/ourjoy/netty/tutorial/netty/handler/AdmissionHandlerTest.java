@@ -0,0 +1,118 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.ourjoy.netty.tutorial.netty.TestMessages.newRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionHandlerTest {
+
+    private static void assertOverloaded(EmbeddedChannel channel, long requestId) {
+        Protocol response = channel.readOutbound();
+        assertTrue(response.hasFlag(Protocol.FLAG_OVERLOADED));
+        assertEquals(requestId, response.getHeader().getRequestId());
+    }
+
+    @Test
+    public void requestsAreRejectedByInflightLimitAndTokenBucket() {
+        LongAdder rejected = new LongAdder();
+        EmbeddedChannel channel = new EmbeddedChannel(new AdmissionHandler(null, 2, 0, 0, rejected));
+        channel.writeInbound(newRequest(1), newRequest(2), newRequest(3));
+        assertEquals(1, ((Protocol) channel.readInbound()).getHeader().getRequestId());
+        assertEquals(2, ((Protocol) channel.readInbound()).getHeader().getRequestId());
+        assertNull(channel.readInbound());
+        assertOverloaded(channel, 3);
+
+        //回了一个响应，在途请求数降到上限以下
+        channel.writeOutbound(newRequest(1));
+        channel.readOutbound();
+        channel.writeInbound(newRequest(4));
+        assertEquals(4, ((Protocol) channel.readInbound()).getHeader().getRequestId());
+        assertEquals(1L, rejected.sum());
+
+        //每秒1个令牌，桶里最多2个
+        EmbeddedChannel limited = new EmbeddedChannel(new AdmissionHandler(null, 0, 1, 2, rejected));
+        limited.writeInbound(newRequest(1), newRequest(2), newRequest(3));
+        limited.readInbound();
+        limited.readInbound();
+        assertNull(limited.readInbound());
+        assertOverloaded(limited, 3);
+        assertEquals(2L, rejected.sum());
+        assertFalse(channel.finish());
+        assertFalse(limited.finish());
+    }
+
+    @Test
+    public void failedRequestReleasesItsInflightSlot() {
+        EmbeddedChannel channel = new EmbeddedChannel(new AdmissionHandler(null, 1, 0, 0, null), new ServerHandler());
+        for (long requestId = 1; requestId <= 3; requestId++) {
+            //body不是User，ServerHandler处理失败，回FLAG_ERROR，名额要释放，后面的请求不能一直被拒绝
+            Protocol request = newRequest(requestId);
+            request.setBody("not a user");
+            channel.writeInbound(request);
+            Protocol response = channel.readOutbound();
+            assertTrue(response.hasFlag(Protocol.FLAG_ERROR));
+            assertFalse(response.hasFlag(Protocol.FLAG_OVERLOADED));
+            assertEquals(requestId, response.getHeader().getRequestId());
+        }
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void requestQueuedTooLongIsNotProcessed() {
+        LongAdder rejected = new LongAdder();
+        EmbeddedChannel channel = new EmbeddedChannel(new QueueTimeoutHandler(20, rejected));
+        Protocol fresh = newRequest(1);
+        fresh.setAdmittedNanos(System.nanoTime());
+        Protocol stale = newRequest(2);
+        stale.setAdmittedNanos(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50));
+        channel.writeInbound(fresh, stale);
+
+        assertEquals(1, ((Protocol) channel.readInbound()).getHeader().getRequestId());
+        assertNull(channel.readInbound());
+        assertOverloaded(channel, 2);
+        assertEquals(1L, rejected.sum());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void probeReportsBlockedEventLoop() throws Exception {
+        DefaultEventLoop loop = new DefaultEventLoop();
+        QueueDelayProbe probe = new QueueDelayProbe(20, 10, loop);
+        probe.start();
+        try {
+            Thread.sleep(50);
+            assertFalse(probe.isOverloaded(loop));
+
+            //IO线程被一个慢任务占住，后面排队的任务都要等
+            CountDownLatch release = new CountDownLatch(1);
+            loop.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Thread.sleep(100);
+            assertTrue(probe.isOverloaded(loop));
+            assertTrue(probe.getMaxDelayNanos() > 0);
+
+            release.countDown();
+            Thread.sleep(100);
+            assertFalse(probe.isOverloaded(loop));
+        } finally {
+            probe.stop();
+            loop.shutdownGracefully();
+        }
+    }
+}
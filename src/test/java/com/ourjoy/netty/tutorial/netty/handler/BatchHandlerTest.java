@@ -0,0 +1,128 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import com.ourjoy.netty.tutorial.netty.codec.FrameDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.protocol.Batch;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ourjoy.netty.tutorial.netty.TestMessages.newRequest;
+import static com.ourjoy.netty.tutorial.netty.TestMessages.repeat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchHandlerTest {
+
+    private static boolean isBatchFrame(ByteBuf frame) {
+        return (frame.getByte(frame.readerIndex() + MyEncoder.FLAGS_OFFSET) & Protocol.FLAG_BATCH) != 0;
+    }
+
+    @Test
+    public void requestsAreBatchedByLingerAndSize() throws Exception {
+        EmbeddedChannel client = new EmbeddedChannel(new MyEncoder(), new BatchHandler(1000, 3));
+        EmbeddedChannel server = new EmbeddedChannel(new FrameDecoder(), new MyDecoder());
+
+        //攒够3条立即写出，不等linger
+        List<ChannelFuture> futures = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            futures.add(client.writeAndFlush(newRequest(i, "user-" + i)));
+        }
+        ByteBuf frame = client.readOutbound();
+        assertTrue(isBatchFrame(frame));
+        assertNull(client.readOutbound());
+        for (ChannelFuture future : futures) {
+            assertTrue(future.isSuccess());
+        }
+
+        //不够3条时等linger到期
+        client.writeAndFlush(newRequest(4, "user-4"));
+        client.writeAndFlush(newRequest(5, "user-5"));
+        assertNull(client.readOutbound());
+        Thread.sleep(5);
+        client.runScheduledPendingTasks();
+        ByteBuf lingered = client.readOutbound();
+        assertTrue(isBatchFrame(lingered));
+
+        server.writeInbound(frame, lingered);
+        for (int i = 1; i <= 5; i++) {
+            Protocol decoded = server.readInbound();
+            assertEquals(i, decoded.getHeader().getRequestId());
+            assertEquals("user-" + i, ((User) decoded.getBody()).getName());
+        }
+        assertNull(server.readInbound());
+        assertEquals(Boolean.TRUE, server.attr(BatchHandler.PEER_BATCHING).get());
+        assertFalse(client.finish());
+        assertFalse(server.finish());
+    }
+
+    @Test
+    public void responsesAreBatchedUntilFlushOnlyForBatchingPeers() {
+        EmbeddedChannel server = new EmbeddedChannel(new MyEncoder(), new BatchHandler(0, 64));
+        server.write(newRequest(1, "a"));
+        server.write(newRequest(2, "b"));
+        server.flush();
+        //对方没有发过批量帧，逐条发
+        assertFalse(isBatchFrame((ByteBuf) server.readOutbound()));
+        assertFalse(isBatchFrame((ByteBuf) server.readOutbound()));
+
+        server.attr(BatchHandler.PEER_BATCHING).set(Boolean.TRUE);
+        server.write(newRequest(3, "c"));
+        server.write(newRequest(4, "d"));
+        assertNull(server.readOutbound());
+        server.flush();
+        assertTrue(isBatchFrame((ByteBuf) server.readOutbound()));
+        assertNull(server.readOutbound());
+        assertFalse(server.finish());
+    }
+
+    @Test
+    public void batchLargerThanOneFrameIsSplit() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MyEncoder(), new FrameDecoder(), new MyDecoder());
+        String name = repeat('x', 30 * 1024);
+        List<Protocol> messages = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            messages.add(newRequest(i, name + i));
+        }
+        channel.writeOutbound(new Batch(messages));
+        ByteBuf frames = channel.readOutbound();
+        assertTrue(frames.readableBytes() > MyEncoder.MAX_FRAME_LENGTH);
+
+        channel.writeInbound(frames);
+        for (int i = 1; i <= 3; i++) {
+            Protocol decoded = channel.readInbound();
+            assertEquals(i, decoded.getHeader().getRequestId());
+            assertEquals(name + i, ((User) decoded.getBody()).getName());
+        }
+        assertNull(channel.readInbound());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void oversizedMessageAfterSmallOneFailsTheBatch() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MyEncoder());
+        String name = repeat('x', 65 * 1024);
+        List<Protocol> messages = new ArrayList<>();
+        messages.add(newRequest(1, "a"));
+        messages.add(newRequest(2, name));
+        try {
+            channel.writeOutbound(new Batch(messages));
+            fail("oversized message must not be encoded");
+        } catch (EncoderException e) {
+            //长度字段放不下，整批都不写出，不能写出一个长度被截断的帧
+        }
+        assertNull(channel.readOutbound());
+        assertFalse(channel.finish());
+    }
+}
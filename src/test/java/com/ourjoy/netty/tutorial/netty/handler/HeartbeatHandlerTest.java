@@ -0,0 +1,63 @@
+package com.ourjoy.netty.tutorial.netty.handler;
+
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import com.ourjoy.netty.tutorial.netty.util.Timers;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HeartbeatHandlerTest {
+
+    @Test
+    public void pingIsAnsweredAndNotForwarded() {
+        EmbeddedChannel channel = new EmbeddedChannel(new HeartbeatHandler(0, 0, null));
+        channel.writeInbound(HeartbeatHandler.newHeartbeat(Protocol.FLAG_PING));
+        assertNull(channel.readInbound());
+        Protocol pong = channel.readOutbound();
+        assertTrue(pong.hasFlag(Protocol.FLAG_PONG));
+
+        channel.writeInbound(HeartbeatHandler.newHeartbeat(Protocol.FLAG_PONG));
+        assertNull(channel.readInbound());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void idleChannelIsPingedThenClosed() throws Exception {
+        LongAdder idleClosed = new LongAdder();
+        EmbeddedChannel channel = new EmbeddedChannel(new HeartbeatHandler(50, 200, idleClosed));
+
+        //时间轮线程只往EmbeddedChannel的任务队列里提交任务，需要手动执行
+        Thread.sleep(120);
+        channel.runPendingTasks();
+        Protocol ping = channel.readOutbound();
+        assertTrue(ping.hasFlag(Protocol.FLAG_PING));
+        assertTrue(channel.isActive());
+
+        Thread.sleep(300);
+        channel.runPendingTasks();
+        assertFalse(channel.isActive());
+        assertEquals(1L, idleClosed.sum());
+    }
+
+    @Test
+    public void closedChannelCancelsItsTimeout() throws Exception {
+        HashedWheelTimer wheel = (HashedWheelTimer) Timers.WHEEL;
+        //等前面用例取消的Timeout从时间轮上移除
+        Thread.sleep(50);
+        long before = wheel.pendingTimeouts();
+        EmbeddedChannel channel = new EmbeddedChannel(new HeartbeatHandler(0, 90_000, null));
+        assertEquals(before + 1, wheel.pendingTimeouts());
+
+        //关闭后时间轮不能再引用这个连接，被取消的Timeout在下一格转动时移除
+        channel.close();
+        Thread.sleep(50);
+        assertEquals(before, wheel.pendingTimeouts());
+    }
+}
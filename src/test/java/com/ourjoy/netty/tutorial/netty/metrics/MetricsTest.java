@@ -0,0 +1,113 @@
+package com.ourjoy.netty.tutorial.netty.metrics;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetricsTest {
+
+    private static void recordMicros(LatencyHistogram histogram, long... samples) {
+        for (long micros : samples) {
+            histogram.recordNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+    }
+
+    @Test
+    public void bucketsAndPercentiles() {
+        //桶的边界：[0] [1] [2,3] [4,7] [8,15] ...，最后一个桶是[2^22,+∞)
+        assertEquals(0, LatencyHistogram.bucket(0));
+        assertEquals(1, LatencyHistogram.bucket(1));
+        assertEquals(2, LatencyHistogram.bucket(2));
+        assertEquals(2, LatencyHistogram.bucket(3));
+        assertEquals(3, LatencyHistogram.bucket(4));
+        assertEquals(3, LatencyHistogram.bucket(7));
+        assertEquals(4, LatencyHistogram.bucket(8));
+        assertEquals(LatencyHistogram.BUCKETS - 2, LatencyHistogram.bucket((1L << 22) - 1));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(1L << 22));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+
+        LatencyHistogram empty = new LatencyHistogram();
+        assertEquals(0, empty.getPercentileMicros(99));
+        assertEquals(0, empty.getMeanMicros(), 0);
+
+        LatencyHistogram zero = new LatencyHistogram();
+        //不到1微秒的按0记
+        zero.recordNanos(999);
+        assertEquals(1, zero.getCount());
+        assertEquals(0, zero.getPercentileMicros(50));
+        assertEquals(0, zero.getPercentileMicros(99));
+        assertEquals(0, zero.getMaxMicros());
+
+        LatencyHistogram small = new LatencyHistogram();
+        recordMicros(small, 1, 2, 3, 4, 7);
+        assertEquals(5, small.getCount());
+        assertEquals(3.4, small.getMeanMicros(), 1e-9);
+        //第3个样本落在[2,3]，第5个落在[4,7]
+        assertEquals(3, small.getPercentileMicros(50));
+        assertEquals(7, small.getPercentileMicros(99));
+        assertEquals(1, small.getPercentileMicros(20));
+
+        //桶的上界是7，但最大值只有5，分位数不超过最大值
+        LatencyHistogram capped = new LatencyHistogram();
+        recordMicros(capped, 4, 5);
+        assertEquals(5, capped.getPercentileMicros(50));
+        assertEquals(5, capped.getPercentileMicros(99));
+
+        //4秒以上落在最后一个桶，上界未知，用最大值
+        LatencyHistogram slow = new LatencyHistogram();
+        recordMicros(slow, 1, 5_000_000);
+        assertEquals(1, slow.getPercentileMicros(50));
+        assertEquals(5_000_000, slow.getPercentileMicros(99));
+        assertEquals(5_000_000, slow.getMaxMicros());
+    }
+
+    @Test
+    public void prometheusText() {
+        Metrics metrics = new Metrics();
+        metrics.recordBytesIn(100);
+        metrics.recordBytesOut(40);
+        for (long micros : new long[]{1, 2, 3, 4, 7}) {
+            metrics.recordDecode(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        metrics.recordEncode(TimeUnit.MICROSECONDS.toNanos(1));
+        metrics.recordHandler(String.class, TimeUnit.MICROSECONDS.toNanos(6));
+
+        String expected = "# TYPE netty_bytes_in_total counter\n"
+                + "netty_bytes_in_total 100\n"
+                + "# TYPE netty_bytes_out_total counter\n"
+                + "netty_bytes_out_total 40\n"
+                + "# TYPE netty_frames_decoded_total counter\n"
+                + "netty_frames_decoded_total 5\n"
+                + "# TYPE netty_frames_encoded_total counter\n"
+                + "netty_frames_encoded_total 1\n"
+                + "# TYPE netty_active_connections gauge\n"
+                + "netty_active_connections 0\n"
+                + "# TYPE netty_pending_outbound_bytes gauge\n"
+                + "netty_pending_outbound_bytes 0\n"
+                + "# TYPE netty_decode_micros summary\n"
+                + "netty_decode_micros{quantile=\"0.5\"} 3\n"
+                + "netty_decode_micros{quantile=\"0.99\"} 7\n"
+                + "netty_decode_micros{quantile=\"0.999\"} 7\n"
+                + "netty_decode_micros_max 7\n"
+                + "netty_decode_micros_count 5\n"
+                + "# TYPE netty_encode_micros summary\n"
+                + "netty_encode_micros{quantile=\"0.5\"} 1\n"
+                + "netty_encode_micros{quantile=\"0.99\"} 1\n"
+                + "netty_encode_micros{quantile=\"0.999\"} 1\n"
+                + "netty_encode_micros_max 1\n"
+                + "netty_encode_micros_count 1\n"
+                + "# TYPE netty_handler_micros summary\n"
+                + "netty_handler_micros{body=\"java.lang.String\",quantile=\"0.5\"} 6\n"
+                + "netty_handler_micros{body=\"java.lang.String\",quantile=\"0.99\"} 6\n"
+                + "netty_handler_micros{body=\"java.lang.String\",quantile=\"0.999\"} 6\n"
+                + "netty_handler_micros_max{body=\"java.lang.String\"} 6\n"
+                + "netty_handler_micros_count{body=\"java.lang.String\"} 1\n";
+        assertEquals(expected, metrics.toText());
+        assertEquals(3, metrics.getDecodeP50Micros());
+        assertEquals(7, metrics.getDecodeP99Micros());
+        assertEquals(Collections.singletonMap("java.lang.String", 6L), metrics.getHandlerP99Micros());
+    }
+}
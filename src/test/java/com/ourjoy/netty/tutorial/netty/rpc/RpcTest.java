@@ -0,0 +1,99 @@
+package com.ourjoy.netty.tutorial.netty.rpc;
+
+import com.ourjoy.netty.tutorial.netty.codec.FrameDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyDecoder;
+import com.ourjoy.netty.tutorial.netty.codec.MyEncoder;
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.handler.ServerHandler;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import com.ourjoy.netty.tutorial.netty.protocol.Protocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static com.ourjoy.netty.tutorial.netty.TestMessages.decode;
+import static com.ourjoy.netty.tutorial.netty.TestMessages.encode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RpcTest {
+
+    public interface UserService {
+        User rename(User user, String name);
+
+        int add(int a, int b);
+
+        void fail(String message);
+    }
+
+    private static final ServiceDescriptor<UserService> USER_SERVICE = ServiceDescriptor.of(1, UserService.class, "1.0");
+
+    private static ServiceRegistry newRegistry() {
+        ServiceRegistry registry = new ServiceRegistry();
+        registry.register(USER_SERVICE, new UserService() {
+            @Override
+            public User rename(User user, String name) {
+                user.setName(name);
+                return user;
+            }
+
+            @Override
+            public int add(int a, int b) {
+                return a + b;
+            }
+
+            @Override
+            public void fail(String message) {
+                throw new IllegalStateException(message);
+            }
+        });
+        return registry;
+    }
+
+    private static Protocol call(String method, Object... args) throws Exception {
+        int methodId = -1;
+        for (java.lang.reflect.Method m : UserService.class.getMethods()) {
+            if (m.getName().equals(method)) {
+                methodId = USER_SERVICE.methodId(m);
+            }
+        }
+        Header header = new Header();
+        header.setRequestId(7);
+        header.setServiceId(USER_SERVICE.getId());
+        header.setMethodId(methodId);
+        header.setBodyClass(Object[].class);
+        Protocol request = new Protocol();
+        request.setMagicNum(0xABABABAB);
+        request.setHeader(header);
+        request.setBody(args);
+
+        //请求经过完整的编解码，验证Header中的id和Object[]参数能正确传输
+        EmbeddedChannel server = new EmbeddedChannel(new MyEncoder(), new FrameDecoder(), new MyDecoder(), new ServerHandler(newRegistry()));
+        server.writeInbound(encode(request));
+        Protocol response = decode((ByteBuf) server.readOutbound());
+        assertEquals(7L, response.getHeader().getRequestId());
+        assertEquals(USER_SERVICE.getId(), response.getHeader().getServiceId());
+        assertEquals(methodId, response.getHeader().getMethodId());
+        return response;
+    }
+
+    @Test
+    public void requestIsDispatchedByServiceAndMethodId() throws Exception {
+        Protocol response = call("rename", new User("zhangsan", 30), "lisi");
+        assertFalse(response.hasFlag(Protocol.FLAG_ERROR));
+        assertEquals("lisi", ((User) response.getBody()).getName());
+
+        assertEquals(5, call("add", 2, 3).getBody());
+    }
+
+    @Test
+    public void failureIsReturnedAsErrorFlag() throws Exception {
+        Protocol response = call("fail", "boom");
+        assertTrue(response.hasFlag(Protocol.FLAG_ERROR));
+        assertTrue(((String) response.getBody()).contains("boom"));
+
+        //参数个数不对
+        assertTrue(call("add", 1).hasFlag(Protocol.FLAG_ERROR));
+    }
+}
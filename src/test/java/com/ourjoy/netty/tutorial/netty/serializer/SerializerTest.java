@@ -0,0 +1,75 @@
+package com.ourjoy.netty.tutorial.netty.serializer;
+
+import com.ourjoy.netty.tutorial.netty.dto.User;
+import com.ourjoy.netty.tutorial.netty.protocol.Header;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SerializerTest {
+
+    @Test
+    public void compactRoundTrip() {
+        Header header = new Header();
+        header.setToken("i am token");
+        header.setBodyClass(User.class);
+
+        ByteBuf buf = Unpooled.buffer();
+        CompactSerializer.INSTANCE.serialize(header, buf);
+        CompactSerializer.INSTANCE.serialize(new User("zhangsan", -100), buf);
+        CompactSerializer.INSTANCE.serialize(null, buf);
+
+        Header h = (Header) CompactSerializer.INSTANCE.deserialize(buf);
+        assertEquals("i am token", h.getToken());
+        assertEquals(User.class, h.getBodyClass());
+        User u = (User) CompactSerializer.INSTANCE.deserialize(buf);
+        assertEquals("zhangsan", u.getName());
+        assertEquals(Integer.valueOf(-100), u.getAge());
+        assertNull(CompactSerializer.INSTANCE.deserialize(buf));
+        assertEquals(0, buf.readableBytes());
+    }
+
+    @Test
+    public void compactIsSmallerThanJdk() {
+        User user = new User("zhangsan", 100);
+        ByteBuf compact = Unpooled.buffer();
+        ByteBuf jdk = Unpooled.buffer();
+        CompactSerializer.INSTANCE.serialize(user, compact);
+        JdkSerializer.INSTANCE.serialize(user, jdk);
+
+        assertTrue(compact.readableBytes() * 5 < jdk.readableBytes());
+        assertEquals("zhangsan", ((User) JdkSerializer.INSTANCE.deserialize(jdk)).getName());
+    }
+
+    @Test
+    public void unregisteredBodyClassTravelsByName() {
+        Header header = new Header();
+        header.setBodyClass(SerializerTest.class);
+
+        ByteBuf buf = Unpooled.buffer();
+        CompactSerializer.INSTANCE.serialize(header, buf);
+        assertEquals(SerializerTest.class, ((Header) CompactSerializer.INSTANCE.deserialize(buf)).getBodyClass());
+    }
+
+    @Test
+    public void hugeArrayLengthIsRejected() {
+        //byte[]和Object[]的类型id是5和6，声明约2GB的长度，后面只有1个字节
+        for (int typeId = 5; typeId <= 6; typeId++) {
+            ByteBuf buf = Unpooled.buffer();
+            CodecUtil.writeVarInt(buf, typeId);
+            CodecUtil.writeVarInt(buf, Integer.MAX_VALUE - 15);
+            buf.writeByte(0);
+            try {
+                CompactSerializer.INSTANCE.deserialize(buf);
+                fail("length larger than readable bytes must be rejected, type id: " + typeId);
+            } catch (SerializationException e) {
+                //分配数组之前就拒绝了
+            }
+        }
+    }
+}
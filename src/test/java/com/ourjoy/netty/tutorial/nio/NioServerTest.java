@@ -0,0 +1,121 @@
+package com.ourjoy.netty.tutorial.nio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class NioServerTest {
+
+    private NioServer server;
+    private Socket socket;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new NioServer(0, 2);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (null != socket) {
+            socket.close();
+        }
+        server.close();
+    }
+
+    private void connect(int receiveBufferSize) throws Exception {
+        socket = new Socket();
+        if (receiveBufferSize > 0) {
+            //连接之前设置才对窗口大小生效
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(10_000);
+        socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+    }
+
+    private static byte[] frame(byte[] body) {
+        return ByteBuffer.allocate(NioConnection.LENGTH_FIELD_LENGTH + body.length).putInt(body.length).put(body).array();
+    }
+
+    private static byte[] readFully(Socket socket, int length) throws Exception {
+        byte[] data = new byte[length];
+        new DataInputStream(socket.getInputStream()).readFully(data);
+        return data;
+    }
+
+    @Test(timeout = 10_000)
+    public void frameDribbledAFewBytesAtATime() throws Exception {
+        connect(0);
+        byte[] frame = frame("dribbled a few bytes at a time".getBytes(StandardCharsets.UTF_8));
+        OutputStream out = socket.getOutputStream();
+        //每次3个字节，长度字段和消息体都被拆开，每段之间停一下，服务端每次只能读到一小段
+        for (int i = 0; i < frame.length; i += 3) {
+            out.write(frame, i, Math.min(3, frame.length - i));
+            out.flush();
+            Thread.sleep(2);
+        }
+        assertArrayEquals(frame, readFully(socket, frame.length));
+    }
+
+    @Test(timeout = 10_000)
+    public void severalFramesInOneWrite() throws Exception {
+        connect(0);
+        ByteBuffer frames = ByteBuffer.allocate(1024);
+        for (int i = 0; i < 5; i++) {
+            frames.put(frame(("message-" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        //空消息体也是合法的帧
+        frames.put(frame(new byte[0]));
+        byte[] sent = new byte[frames.position()];
+        frames.flip();
+        frames.get(sent);
+
+        socket.getOutputStream().write(sent);
+        assertArrayEquals(sent, readFully(socket, sent.length));
+    }
+
+    @Test(timeout = 20_000)
+    public void largeBodiesForceShortWritesAndReadPause() throws Exception {
+        //客户端接收窗口很小，先不读，服务端的响应写不出去，写队列超过高水位后暂停读
+        connect(8 * 1024);
+        byte[] body = new byte[512 * 1024];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31 + i / 7);
+        }
+        byte[] frame = frame(body);
+        int frameCount = 8;
+
+        AtomicReference<Throwable> writeError = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                OutputStream out = socket.getOutputStream();
+                for (int i = 0; i < frameCount; i++) {
+                    out.write(frame);
+                }
+                out.flush();
+            } catch (Throwable t) {
+                writeError.set(t);
+            }
+        }, "nio-test-writer");
+        writer.start();
+        Thread.sleep(200);
+
+        for (int i = 0; i < frameCount; i++) {
+            assertArrayEquals(frame, readFully(socket, frame.length));
+        }
+        writer.join();
+        assertNull(writeError.get());
+    }
+}